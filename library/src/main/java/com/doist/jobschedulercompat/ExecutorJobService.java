@@ -0,0 +1,197 @@
+package com.doist.jobschedulercompat;
+
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * {@link JobService} that runs each job synchronously in {@link #onRunJob(JobParameters)}, off the main thread, and
+ * calls {@link #jobFinished(JobParameters, boolean)} once it returns.
+ *
+ * Jobs run on a bounded {@link ExecutorService}, with at most {@link #getMaxParallelism()} running at a time, and
+ * others waiting for their turn. Subclasses can provide their own executor in {@link #onCreateExecutor()}.
+ *
+ * When a job is stopped, eg. because its constraints are no longer met, its thread is interrupted and
+ * {@link #isStopped(JobParameters)} starts returning {@code true}. Long running jobs should check either regularly and
+ * return early, at which point the result of {@link #onRunJob(JobParameters)} is ignored and
+ * {@link #onStopRunningJob(JobParameters)} decides whether to reschedule it.
+ */
+public abstract class ExecutorJobService extends JobService {
+    private static final String LOG_TAG = "ExecutorJobService";
+
+    private final SparseArray<Task> tasks = new SparseArray<>();
+    private ExecutorService executor;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        executor = onCreateExecutor();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the job synchronously, on one of the executor's threads.
+     *
+     * @return whether the job needs to be rescheduled, as with {@link #jobFinished(JobParameters, boolean)}.
+     */
+    @WorkerThread
+    public abstract boolean onRunJob(JobParameters params);
+
+    /**
+     * Called on the main thread when a job is stopped before {@link #onRunJob(JobParameters)} returns, after its
+     * thread was interrupted.
+     *
+     * @return whether the job needs to be rescheduled, as with {@link #onStopJob(JobParameters)}. Defaults to
+     * {@code true}, as the job didn't complete.
+     */
+    public boolean onStopRunningJob(JobParameters params) {
+        return true;
+    }
+
+    /**
+     * Returns whether the job was stopped, in which case {@link #onRunJob(JobParameters)} should return early.
+     */
+    public final boolean isStopped(JobParameters params) {
+        synchronized (tasks) {
+            Task task = tasks.get(params.getJobId());
+            return task == null || task.params != params || task.stopped;
+        }
+    }
+
+    /**
+     * Returns the maximum number of jobs running at the same time, used by the default executor.
+     *
+     * Defaults to the number of CPU cores minus one, between 2 and 4, as {@link android.os.AsyncTask}.
+     */
+    protected int getMaxParallelism() {
+        return Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    }
+
+    /**
+     * Creates the executor that runs jobs, once per service instance. It is shut down when the service is destroyed.
+     *
+     * Defaults to a pool of up to {@link #getMaxParallelism()} background priority threads, which time out when idle.
+     */
+    @NonNull
+    protected ExecutorService onCreateExecutor() {
+        int maxParallelism = getMaxParallelism();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxParallelism, maxParallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory(getClass().getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public final boolean onStartJob(JobParameters params) {
+        Task task = new Task(params);
+        synchronized (tasks) {
+            tasks.put(params.getJobId(), task);
+        }
+        try {
+            task.future = executor.submit(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Unable to run job " + params.getJobId(), e);
+            synchronized (tasks) {
+                tasks.remove(params.getJobId());
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public final boolean onStopJob(JobParameters params) {
+        Task task;
+        synchronized (tasks) {
+            task = tasks.get(params.getJobId());
+            if (task == null || task.params != params) {
+                return false;
+            }
+            task.stopped = true;
+            tasks.remove(params.getJobId());
+        }
+        Future<?> future = task.future;
+        if (future != null) {
+            future.cancel(true);
+        }
+        return onStopRunningJob(params);
+    }
+
+    private class Task implements Runnable {
+        private final JobParameters params;
+
+        private volatile Future<?> future;
+        private boolean stopped;
+
+        private Task(JobParameters params) {
+            this.params = params;
+        }
+
+        @Override
+        public void run() {
+            if (isStopped(params)) {
+                return;
+            }
+            boolean needsReschedule = false;
+            try {
+                needsReschedule = onRunJob(params);
+            } catch (Throwable t) {
+                // Errors too, as the executor's future would keep them unnoticed.
+                Log.e(LOG_TAG, "Job " + params.getJobId() + " failed", t);
+            } finally {
+                finish(needsReschedule);
+            }
+        }
+
+        /**
+         * Finishes the job, unless it was stopped.
+         */
+        private void finish(boolean needsReschedule) {
+            synchronized (tasks) {
+                if (stopped) {
+                    return;
+                }
+                tasks.remove(params.getJobId());
+            }
+            jobFinished(params, needsReschedule);
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private BackgroundThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "jsc:" + name + "-" + count.incrementAndGet());
+        }
+    }
+}
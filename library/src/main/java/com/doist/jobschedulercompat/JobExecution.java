@@ -0,0 +1,142 @@
+package com.doist.jobschedulercompat;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+/**
+ * Record of a past execution of a job, as returned by {@link JobScheduler#getJobHistory(int)}.
+ */
+public final class JobExecution {
+    /** The job finished, through {@link JobService#jobFinished(JobParameters, boolean)} or by not starting work. */
+    public static final int STOP_REASON_FINISHED = 0;
+    /** The job was stopped before finishing, eg. because its constraints were no longer met. */
+    public static final int STOP_REASON_STOPPED = 1;
+    /** The job was stopped for running longer than {@link JobSchedulerSettings#getMaxExecutionTime()}. */
+    public static final int STOP_REASON_TIMEOUT = 2;
+    /** The job was cancelled while running. */
+    public static final int STOP_REASON_CANCELLED = 3;
+    /** The job's {@link JobService} couldn't be bound, or disconnected while running. */
+    public static final int STOP_REASON_SERVICE_UNAVAILABLE = 4;
+
+    private final int jobId;
+    private final String schedulerTag;
+    private final long startTime;
+    private final long endTime;
+    private final long duration;
+    private final int stopReason;
+    private final boolean needsReschedule;
+    private final int requiredConstraints;
+    private final int satisfiedConstraints;
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public JobExecution(int jobId, @NonNull String schedulerTag, long startTime, long endTime, long duration,
+                        int stopReason, boolean needsReschedule, int requiredConstraints, int satisfiedConstraints) {
+        this.jobId = jobId;
+        this.schedulerTag = schedulerTag;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.duration = duration;
+        this.stopReason = stopReason;
+        this.needsReschedule = needsReschedule;
+        this.requiredConstraints = requiredConstraints;
+        this.satisfiedConstraints = satisfiedConstraints;
+    }
+
+    public int getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Returns the tag of the scheduler that ran the job, such as {@code "AlarmScheduler"}.
+     */
+    @NonNull
+    public String getSchedulerTag() {
+        return schedulerTag;
+    }
+
+    /**
+     * Returns the wall clock time at which the job started, in milliseconds.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the wall clock time at which the job stopped, in milliseconds.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Returns how long the job ran for, in milliseconds. Unlike the difference between {@link #getEndTime()} and
+     * {@link #getStartTime()}, it isn't affected by wall clock changes.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns why the job stopped, one of the {@code STOP_REASON_*} constants.
+     */
+    public int getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Returns whether the job was rescheduled as a failure once it stopped.
+     */
+    public boolean needsReschedule() {
+        return needsReschedule;
+    }
+
+    /**
+     * Returns the constraints the job required when it started, as an internal bitmask shown in {@link #toString()}.
+     */
+    public int getRequiredConstraints() {
+        return requiredConstraints;
+    }
+
+    /**
+     * Returns the constraints known to be satisfied when the job started, as an internal bitmask shown in
+     * {@link #toString()}. Only alarm-based jobs track every constraint, other schedulers evaluate them on their own.
+     */
+    public int getSatisfiedConstraints() {
+        return satisfiedConstraints;
+    }
+
+    @Override
+    public String toString() {
+        return "JobExecution{"
+                + "jobId=" + jobId
+                + ", scheduler=" + schedulerTag
+                + ", start=" + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date(startTime))
+                + ", duration=" + duration + "ms"
+                + ", stopReason=" + stopReasonToString(stopReason)
+                + ", needsReschedule=" + needsReschedule
+                + ", required=0x" + Integer.toHexString(requiredConstraints)
+                + ", satisfied=0x" + Integer.toHexString(satisfiedConstraints)
+                + "}";
+    }
+
+    private static String stopReasonToString(int stopReason) {
+        switch (stopReason) {
+            case STOP_REASON_FINISHED:
+                return "finished";
+            case STOP_REASON_STOPPED:
+                return "stopped";
+            case STOP_REASON_TIMEOUT:
+                return "timeout";
+            case STOP_REASON_CANCELLED:
+                return "cancelled";
+            case STOP_REASON_SERVICE_UNAVAILABLE:
+                return "service-unavailable";
+            default:
+                return "unknown(" + stopReason + ")";
+        }
+    }
+}
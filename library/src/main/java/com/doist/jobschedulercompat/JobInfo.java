@@ -141,6 +141,9 @@ public class JobInfo {
     private final boolean importantWhileForeground;
     private final boolean prefetch;
 
+    /** Lazily estimated, as transient extras have to be parceled for it. */
+    private volatile int estimatedExtrasSize = -1;
+
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public JobInfo(int jobId, ComponentName service, PersistableBundle extras, Bundle transientExtras,
                    ClipData clipData, int clipGrantFlags, int constraintFlags, TriggerContentUri[] triggerContentUris,
@@ -187,9 +190,13 @@ public class JobInfo {
         return service;
     }
 
-    /** @see android.app.job.JobInfo#getExtras() */
+    /**
+     * Returns a copy-on-write copy of the job's extras, which shares them until modified.
+     *
+     * @see android.app.job.JobInfo#getExtras()
+     */
     public @NonNull PersistableBundle getExtras() {
-        return extras;
+        return new PersistableBundle(extras);
     }
 
     /** @see android.app.job.JobInfo#getTransientExtras() */
@@ -197,6 +204,30 @@ public class JobInfo {
         return transientExtras;
     }
 
+    /**
+     * Returns an estimate of the size of the job's extras and transient extras once persisted, in bytes.
+     *
+     * Transient extras are persisted parceled and Base64-encoded with the library's own data, so they're estimated
+     * from their parceled size.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public int getEstimatedExtrasSize() {
+        if (estimatedExtrasSize < 0) {
+            int transientExtrasSize = 0;
+            if (!transientExtras.isEmpty()) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.writeBundle(transientExtras);
+                    transientExtrasSize = (parcel.dataSize() + 2) / 3 * 4;
+                } finally {
+                    parcel.recycle();
+                }
+            }
+            estimatedExtrasSize = extras.getEstimatedSize() + transientExtrasSize;
+        }
+        return estimatedExtrasSize;
+    }
+
     /** @see android.app.job.JobInfo#getClipData() */
     @RequiresApi(Build.VERSION_CODES.O)
     public @Nullable ClipData getClipData() {
@@ -693,14 +724,14 @@ public class JobInfo {
                                 + " setRequiresDeviceIdle is an error.");
             }
 
-            // Make our own copy.
-            extras = new PersistableBundle(extras);
+            // Make our own immutable copy, so that it's converted at most once for persisting and scheduling.
+            extras = extras.frozenCopy();
 
             return new JobInfo(
                     jobId, jobService, extras, transientExtras, clipData, clipGrantFlags, constraintFlags,
                     triggerContentUris != null ? triggerContentUris.toArray(new TriggerContentUri[0]) : null,
                     triggerContentUpdateDelay, triggerContentMaxDelay, hasEarlyConstraint, hasLateConstraint,
-                    networkType, networkRequest, networkDownloadBytes, networkDownloadBytes, minLatencyMillis,
+                    networkType, networkRequest, networkDownloadBytes, networkUploadBytes, minLatencyMillis,
                     maxExecutionDelayMillis, isPeriodic, isPersisted, intervalMillis, flexMillis, initialBackoffMillis,
                     backoffPolicy, importantWhileForeground, prefetch);
         }
@@ -3,10 +3,13 @@ package com.doist.jobschedulercompat;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import com.doist.jobschedulercompat.job.JobHistory;
 import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.job.JobTimeouts;
 import com.doist.jobschedulercompat.scheduler.Scheduler;
 import com.doist.jobschedulercompat.scheduler.alarm.AlarmScheduler;
+import com.doist.jobschedulercompat.scheduler.alarm.JobWakeLock;
 import com.doist.jobschedulercompat.scheduler.gcm.GcmScheduler;
 import com.doist.jobschedulercompat.scheduler.jobscheduler.JobSchedulerSchedulerV21;
 import com.doist.jobschedulercompat.scheduler.jobscheduler.JobSchedulerSchedulerV24;
@@ -43,6 +46,8 @@ public class JobScheduler {
     @SuppressLint("StaticFieldLeak")
     private static JobScheduler instance;
 
+    private static volatile JobSchedulerMetrics metrics;
+
     public static synchronized JobScheduler get(Context context) {
         if (instance == null) {
             instance = new JobScheduler(context);
@@ -60,18 +65,59 @@ public class JobScheduler {
 
     /** @see android.app.job.JobScheduler#schedule(android.app.job.JobInfo) */
     public int schedule(JobInfo job) {
+        return schedule(job, true);
+    }
+
+    /**
+     * Schedules a job the library already stores again, such as when GcmNetworkManager asks for it, without enforcing
+     * the extras size limits, which may have been lowered since it was first scheduled.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public int reschedule(JobInfo job) {
+        return schedule(job, false);
+    }
+
+    private int schedule(JobInfo job, boolean enforceLimits) {
+        JobSchedulerMetrics metrics = JobScheduler.metrics;
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        int extrasSize = job.getEstimatedExtrasSize();
+        int maxJobExtrasSize = JobSchedulerSettings.getMaxJobExtrasSize();
+        if (enforceLimits && extrasSize > maxJobExtrasSize) {
+            throw new IllegalArgumentException(
+                    "Job extras may not exceed " + maxJobExtrasSize + " bytes, estimated at " + extrasSize);
+        }
+        Scheduler scheduler;
+        int result;
+        long totalExtrasSize;
         synchronized (JobStore.LOCK) {
             if (jobStore.size() > MAX_JOBS) {
                 throw new IllegalStateException("Apps may not schedule more than " + MAX_JOBS + " distinct jobs");
             }
-            Scheduler scheduler = getSchedulerForJob(context, job);
+            totalExtrasSize = jobStore.getEstimatedExtrasSize() + extrasSize;
+            JobStatus previous = jobStore.getJob(job.getId());
+            int previousExtrasSize = previous != null ? previous.getJob().getEstimatedExtrasSize() : 0;
+            totalExtrasSize -= previousExtrasSize;
+            long maxTotalExtrasSize = JobSchedulerSettings.getMaxTotalExtrasSize();
+            // Replacing a job without growing its extras is allowed, even if the store is already over the limit.
+            if (enforceLimits && extrasSize > previousExtrasSize && totalExtrasSize > maxTotalExtrasSize) {
+                throw new IllegalStateException(
+                        "Apps may not schedule jobs with more than " + maxTotalExtrasSize + " bytes of extras");
+            }
+            scheduler = getSchedulerForJob(context, job);
             jobStore.add(JobStatus.createFromJobInfo(job, scheduler.getTag()));
-            return scheduler.schedule(job);
+            result = scheduler.schedule(job);
+        }
+        if (metrics != null) {
+            metrics.onJobScheduled(job.getId(), scheduler.getTag(), System.nanoTime() - startTime);
+            metrics.onExtrasMeasured(job.getId(), job.getService(), extrasSize, totalExtrasSize);
         }
+        return result;
     }
 
     /** @see android.app.job.JobScheduler#cancel(int) */
     public void cancel(int jobId) {
+        JobSchedulerMetrics metrics = JobScheduler.metrics;
+        long startTime = metrics != null ? System.nanoTime() : 0L;
         synchronized (JobStore.LOCK) {
             JobStatus jobStatus = jobStore.getJob(jobId);
             if (jobStatus != null) {
@@ -79,20 +125,31 @@ public class JobScheduler {
                 getSchedulerForTag(context, jobStatus.getSchedulerTag()).cancel(jobId);
             }
         }
+        if (metrics != null) {
+            metrics.onJobCancelled(jobId, System.nanoTime() - startTime);
+        }
     }
 
     /** @see android.app.job.JobScheduler#cancelAll() */
     public void cancelAll() {
+        JobSchedulerMetrics metrics = JobScheduler.metrics;
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        int jobCount;
         synchronized (JobStore.LOCK) {
             Set<String> tags = new HashSet<>();
-            for (JobStatus jobStatus : jobStore.getJobs()) {
+            List<JobStatus> jobStatuses = jobStore.getJobs();
+            for (JobStatus jobStatus : jobStatuses) {
                 tags.add(jobStatus.getSchedulerTag());
             }
+            jobCount = jobStatuses.size();
             jobStore.clear();
             for (String tag : tags) {
                 getSchedulerForTag(context, tag).cancelAll();
             }
         }
+        if (metrics != null) {
+            metrics.onAllJobsCancelled(jobCount, System.nanoTime() - startTime);
+        }
     }
 
     /** @see android.app.job.JobScheduler#getAllPendingJobs() */
@@ -117,6 +174,59 @@ public class JobScheduler {
         }
     }
 
+    /**
+     * Registers {@code metrics} to receive timings and counters from the library, or unregisters them if
+     * {@code null}. See {@link JobSchedulerMetrics}.
+     */
+    public void setMetrics(@Nullable JobSchedulerMetrics metrics) {
+        JobScheduler.metrics = metrics;
+        if (metrics != null) {
+            metrics.onJobsLoaded(jobStore.getLoadedJobCount(), jobStore.getLoadDuration());
+        }
+    }
+
+    /**
+     * Returns the registered metrics, or {@code null} if there are none, in which case measuring should be skipped.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    public static JobSchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the total time, in milliseconds, that the library held a wake lock to run the job with {@code jobId}
+     * since the process started, to help find jobs that are expensive in battery.
+     *
+     * Only jobs run through {@code AlarmManager} are accounted for, as other schedulers hold their own wake locks.
+     */
+    public long getWakeLockHoldTime(int jobId) {
+        return JobWakeLock.getHoldTime(jobId);
+    }
+
+    /**
+     * Returns how many times the job with {@code jobId} was stopped for running longer than
+     * {@link JobSchedulerSettings#getMaxExecutionTime()} since the process started.
+     *
+     * Only jobs run through {@code AlarmManager} or {@code GcmNetworkManager} are accounted for, as JobScheduler
+     * enforces its own limit.
+     */
+    public int getTimeoutCount(int jobId) {
+        return JobTimeouts.getCount(jobId);
+    }
+
+    /**
+     * Returns the last executions of the job with {@code jobId}, oldest first, to help diagnose when and how it ran.
+     *
+     * Executions of all jobs are kept up to a total of {@value JobHistory#MAX_EXECUTIONS}, across process restarts.
+     * They're also printed when dumping the library's job services while they run, through
+     * {@code adb shell dumpsys activity service}.
+     */
+    @NonNull
+    public List<JobExecution> getJobHistory(int jobId) {
+        return JobHistory.get(context).getExecutions(jobId);
+    }
+
     /**
      * Notify the scheduler that a job finished executing.
      *
@@ -127,19 +237,25 @@ public class JobScheduler {
         synchronized (JobStore.LOCK) {
             JobStatus jobStatus = jobStore.getJob(jobId);
             if (jobStatus != null) {
-                jobStore.remove(jobId);
                 if (needsReschedule) {
-                    jobStore.add(getRescheduleJobForFailure(jobStatus));
+                    rescheduleJobForFailure(jobStatus);
+                    jobStore.update(jobStatus);
                 } else if (jobStatus.isPeriodic()) {
-                    jobStore.add(getRescheduleJobForPeriodic(jobStatus));
+                    rescheduleJobForPeriodic(jobStatus);
+                    jobStore.update(jobStatus);
+                } else {
+                    jobStore.remove(jobId);
                 }
                 getSchedulerForTag(context, jobStatus.getSchedulerTag()).onJobCompleted(jobId, needsReschedule);
             }
         }
     }
 
-    /** Similar to com.android.server.job.JobSchedulerService#getRescheduleJobForFailureLocked(JobStatus). */
-    private JobStatus getRescheduleJobForFailure(JobStatus failureToReschedule) {
+    /**
+     * Similar to com.android.server.job.JobSchedulerService#getRescheduleJobForFailureLocked(JobStatus), but updates
+     * the job in place.
+     */
+    private void rescheduleJobForFailure(JobStatus failureToReschedule) {
         final long elapsedNowMillis = SystemClock.elapsedRealtime();
         final JobInfo job = failureToReschedule.getJob();
         final long initialBackoffMillis = job.getInitialBackoffMillis();
@@ -157,17 +273,17 @@ public class JobScheduler {
         }
         delayMillis = Math.min(delayMillis, JobInfo.MAX_BACKOFF_DELAY_MILLIS);
 
-        JobStatus newJob = new JobStatus(
-                failureToReschedule.getJob(), failureToReschedule.getSchedulerTag(), backoffAttempts,
-                elapsedNowMillis + delayMillis, JobStatus.NO_LATEST_RUNTIME);
-
-        getSchedulerForTag(context, newJob.getSchedulerTag()).onJobRescheduled(newJob, failureToReschedule);
+        failureToReschedule.updateTiming(
+                backoffAttempts, elapsedNowMillis + delayMillis, JobStatus.NO_LATEST_RUNTIME);
 
-        return newJob;
+        getSchedulerForTag(context, failureToReschedule.getSchedulerTag()).onJobRescheduled(failureToReschedule);
     }
 
-    /** Similar to com.android.server.job.JobSchedulerService#getRescheduleJobForPeriodic(JobStatus). */
-    private JobStatus getRescheduleJobForPeriodic(JobStatus periodicToReschedule) {
+    /**
+     * Similar to com.android.server.job.JobSchedulerService#getRescheduleJobForPeriodic(JobStatus), but updates the
+     * job in place.
+     */
+    private void rescheduleJobForPeriodic(JobStatus periodicToReschedule) {
         final long elapsedNowMillis = SystemClock.elapsedRealtime();
         // Compute how much of the period is remaining.
         long runEarly = 0L;
@@ -179,9 +295,7 @@ public class JobScheduler {
         final long period = periodicToReschedule.getJob().getIntervalMillis();
         final long newLatestRuntimeElapsed = newEarliestRunTimeElapsed + period;
 
-        return new JobStatus(
-                periodicToReschedule.getJob(), periodicToReschedule.getSchedulerTag(), 0 /* backoffAttempt */,
-                newEarliestRunTimeElapsed, newLatestRuntimeElapsed);
+        periodicToReschedule.updateTiming(0 /* backoffAttempt */, newEarliestRunTimeElapsed, newLatestRuntimeElapsed);
     }
 
     @RestrictTo(RestrictTo.Scope.LIBRARY)
@@ -205,6 +319,17 @@ public class JobScheduler {
         }
     }
 
+    /**
+     * Persists changes made in place to {@code jobStatus}, such as through
+     * {@link JobStatus#updateTiming(int, long, long)}.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void updateJob(JobStatus jobStatus) {
+        synchronized (JobStore.LOCK) {
+            jobStore.update(jobStatus);
+        }
+    }
+
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public void removeJob(int jobId) {
         synchronized (JobStore.LOCK) {
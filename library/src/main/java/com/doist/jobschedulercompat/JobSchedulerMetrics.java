@@ -0,0 +1,101 @@
+package com.doist.jobschedulercompat;
+
+import android.content.ComponentName;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives timings and counters from the library, to be forwarded to telemetry. Register it through
+ * {@link JobScheduler#setMetrics(JobSchedulerMetrics)}.
+ *
+ * Callbacks can happen on any thread, including the main thread and the library's own threads, so they should return
+ * quickly. Durations measured with {@link System#nanoTime()} are in nanoseconds, durations measured against
+ * {@link android.os.SystemClock#elapsedRealtime()} are in milliseconds. Override only the callbacks of interest.
+ *
+ * When no metrics are registered, the library skips measuring altogether.
+ */
+public abstract class JobSchedulerMetrics {
+    /**
+     * Called after {@link JobScheduler#schedule(JobInfo)}, with how long it took, including waiting for the store.
+     */
+    public void onJobScheduled(int jobId, @NonNull String schedulerTag, long durationNanos) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after {@link JobScheduler#schedule(JobInfo)}, with the estimated size of the job's extras and of the extras
+     * of all jobs in the store, in bytes, to tell which jobs make persisting them expensive.
+     */
+    public void onExtrasMeasured(int jobId, @NonNull ComponentName service, int extrasSize, long totalExtrasSize) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after {@link JobScheduler#cancel(int)}, with how long it took, including waiting for the store.
+     */
+    public void onJobCancelled(int jobId, long durationNanos) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after {@link JobScheduler#cancelAll()}, with how long it took, including waiting for the store.
+     */
+    public void onAllJobsCancelled(int jobCount, long durationNanos) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after jobs are loaded from disk when the process starts. As that happens before metrics can be
+     * registered, it's called once when they are.
+     */
+    public void onJobsLoaded(int jobCount, long durationNanos) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after jobs are persisted to disk, with how many bytes were written and how long it took.
+     */
+    public void onJobsPersisted(int jobCount, long bytes, long durationNanos) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called when a job is started, with how long it was ready to run before that. Jobs are considered ready when
+     * their constraints are satisfied, or when their minimum latency elapsed if the library doesn't track their
+     * constraints, as with JobScheduler and GcmNetworkManager. Not called if neither is known.
+     */
+    public void onJobStarted(int jobId, @NonNull String schedulerTag, long readyDurationMillis) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called when a job stops, with how long it ran and why it stopped, one of the
+     * {@code JobExecution.STOP_REASON_*} constants.
+     */
+    public void onJobStopped(int jobId, @NonNull String schedulerTag, long durationMillis, int stopReason) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called when the wake lock held while running an alarm-based job is released, with how long it was held.
+     */
+    public void onWakeLockReleased(int jobId, long durationMillis) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after the wakeups for alarm-based jobs are planned, with how many windows in which waking up is useful
+     * there were, and how few wakeups hit all of them. The difference is how many wakeups batching saved.
+     */
+    public void onWakeupsPlanned(int windowCount, int wakeupCount) {
+        // Implementations can override.
+    }
+
+    /**
+     * Called after the constraints of alarm-based jobs are evaluated, with how many jobs there were and how long it
+     * took.
+     */
+    public void onConstraintsEvaluated(int jobCount, long durationNanos) {
+        // Implementations can override.
+    }
+}
@@ -0,0 +1,143 @@
+package com.doist.jobschedulercompat;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.IntRange;
+
+/**
+ * Settings for the compat schedulers, for behaviors left to the system in {@link android.app.job.JobScheduler}.
+ *
+ * These only apply to jobs scheduled through {@code AlarmManager} or {@code GcmNetworkManager}, and should be set
+ * before scheduling any jobs, eg. in {@link android.app.Application#onCreate()}.
+ */
+public final class JobSchedulerSettings {
+    /** Same as the system's default low battery warning level. */
+    public static final int DEFAULT_BATTERY_LOW_PERCENTAGE = 15;
+    /** Same as the system's default low battery close warning level. */
+    public static final int DEFAULT_BATTERY_OKAY_PERCENTAGE = 20;
+
+    /** Same as the system's default storage low percentage. */
+    public static final int DEFAULT_STORAGE_LOW_PERCENTAGE = 10;
+    /** Same as the system's default storage low maximum bytes. */
+    public static final long DEFAULT_STORAGE_LOW_MAX_BYTES = 500L * 1024 * 1024;
+
+    /** Same as JobScheduler's maximum execution time. */
+    public static final long DEFAULT_MAX_EXECUTION_TIME = TimeUnit.MINUTES.toMillis(10);
+
+    /** Unlimited, as in JobScheduler. */
+    public static final int DEFAULT_MAX_JOB_EXTRAS_SIZE = Integer.MAX_VALUE;
+    /** Unlimited, as in JobScheduler. */
+    public static final long DEFAULT_MAX_TOTAL_EXTRAS_SIZE = Long.MAX_VALUE;
+
+    private static volatile int batteryLowPercentage = DEFAULT_BATTERY_LOW_PERCENTAGE;
+    private static volatile int batteryOkayPercentage = DEFAULT_BATTERY_OKAY_PERCENTAGE;
+    private static volatile int storageLowPercentage = DEFAULT_STORAGE_LOW_PERCENTAGE;
+    private static volatile long storageLowMaxBytes = DEFAULT_STORAGE_LOW_MAX_BYTES;
+    private static volatile long maxExecutionTime = DEFAULT_MAX_EXECUTION_TIME;
+    private static volatile int maxJobExtrasSize = DEFAULT_MAX_JOB_EXTRAS_SIZE;
+    private static volatile long maxTotalExtrasSize = DEFAULT_MAX_TOTAL_EXTRAS_SIZE;
+
+    private JobSchedulerSettings() {
+    }
+
+    /**
+     * Sets the battery percentages at which the battery becomes low, and okay again, while not charging.
+     *
+     * Battery-not-low constraints stop being satisfied at or below {@code lowPercentage}, and are only satisfied again
+     * at or above {@code okayPercentage}, or when charging, so that jobs don't flap around a single threshold.
+     *
+     * @throws IllegalArgumentException if {@code okayPercentage} is lower than {@code lowPercentage}.
+     */
+    public static synchronized void setBatteryThresholds(@IntRange(from = 0, to = 100) int lowPercentage,
+                                                         @IntRange(from = 0, to = 100) int okayPercentage) {
+        if (lowPercentage < 0 || okayPercentage > 100 || okayPercentage < lowPercentage) {
+            throw new IllegalArgumentException(
+                    "Invalid battery thresholds: low " + lowPercentage + "%, okay " + okayPercentage + "%");
+        }
+        batteryLowPercentage = lowPercentage;
+        batteryOkayPercentage = okayPercentage;
+    }
+
+    public static int getBatteryLowPercentage() {
+        return batteryLowPercentage;
+    }
+
+    public static int getBatteryOkayPercentage() {
+        return batteryOkayPercentage;
+    }
+
+    /**
+     * Sets the free space below which storage is low, as the lowest of a percentage of the total space and a number
+     * of bytes.
+     *
+     * Storage-not-low constraints are only satisfied while the free space in the app's files directory is at or
+     * above this threshold.
+     *
+     * @throws IllegalArgumentException if {@code lowPercentage} or {@code lowMaxBytes} are out of range.
+     */
+    public static synchronized void setStorageLowThreshold(@IntRange(from = 0, to = 100) int lowPercentage,
+                                                           @IntRange(from = 0) long lowMaxBytes) {
+        if (lowPercentage < 0 || lowPercentage > 100 || lowMaxBytes < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid storage threshold: low " + lowPercentage + "%, at most " + lowMaxBytes + " bytes");
+        }
+        storageLowPercentage = lowPercentage;
+        storageLowMaxBytes = lowMaxBytes;
+    }
+
+    public static int getStorageLowPercentage() {
+        return storageLowPercentage;
+    }
+
+    public static long getStorageLowMaxBytes() {
+        return storageLowMaxBytes;
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, each job is expected to run for.
+     *
+     * Jobs running for longer are asked to stop through {@link JobService#onStopJob(JobParameters)}, and are
+     * rescheduled if it returns {@code true}. Their wake lock times out shortly after this limit.
+     *
+     * @throws IllegalArgumentException if {@code maxExecutionTimeMs} isn't positive.
+     */
+    public static synchronized void setMaxExecutionTime(@IntRange(from = 1) long maxExecutionTimeMs) {
+        if (maxExecutionTimeMs <= 0) {
+            throw new IllegalArgumentException("Invalid maximum execution time: " + maxExecutionTimeMs + "ms");
+        }
+        maxExecutionTime = maxExecutionTimeMs;
+    }
+
+    public static long getMaxExecutionTime() {
+        return maxExecutionTime;
+    }
+
+    /**
+     * Sets the maximum estimated size, in bytes, of each job's extras and transient extras, and of those of all jobs.
+     *
+     * Both are unlimited by default. Unlike other settings, these apply to all jobs, as the library stores all of them.
+     * Scheduling a job over {@code maxJobExtrasSize} throws {@link IllegalArgumentException}, and scheduling a job that
+     * takes the total over {@code maxTotalExtrasSize} throws {@link IllegalStateException}. Jobs the library schedules
+     * again, such as after reboots, aren't subject to these limits.
+     *
+     * @throws IllegalArgumentException if {@code maxJobExtrasSize} or {@code maxTotalExtrasSize} are out of range.
+     */
+    public static synchronized void setMaxExtrasSize(@IntRange(from = 0) int maxJobExtrasSize,
+                                                     @IntRange(from = 0) long maxTotalExtrasSize) {
+        if (maxJobExtrasSize < 0 || maxTotalExtrasSize < maxJobExtrasSize) {
+            throw new IllegalArgumentException(
+                    "Invalid maximum extras size: " + maxJobExtrasSize + " bytes per job, "
+                            + maxTotalExtrasSize + " bytes in total");
+        }
+        JobSchedulerSettings.maxJobExtrasSize = maxJobExtrasSize;
+        JobSchedulerSettings.maxTotalExtrasSize = maxTotalExtrasSize;
+    }
+
+    public static int getMaxJobExtrasSize() {
+        return maxJobExtrasSize;
+    }
+
+    public static long getMaxTotalExtrasSize() {
+        return maxTotalExtrasSize;
+    }
+}
@@ -3,9 +3,11 @@ package com.doist.jobschedulercompat;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
-import android.util.SparseArray;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
@@ -42,27 +44,32 @@ public abstract class JobService extends Service {
      * All scheduler job services bind to this service to proxy their lifecycle. This allows maintaining parity with
      * JobScheduler's API, while hiding implementation details away from the user.
      *
-     * Methods are synchronized to prevent race conditions when updating {@link #callbacks}.
+     * Each job's callback is kept in a concurrent map along with its state, which moves from {@link Job#STARTING} to
+     * {@link Job#RUNNING}, {@link Job#STOPPING} and {@link Job#FINISHED} atomically. The user's callbacks are called
+     * without holding any lock, so a slow {@link JobService#onStartJob(JobParameters)} doesn't block other jobs.
      * There are no guarantees on which thread calls {@link #notifyJobFinished(JobParameters, boolean)}.
      */
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public static class Binder extends android.os.Binder {
         private final WeakReference<JobService> serviceRef;
-        private final SparseArray<Callback> callbacks;
+        private final ConcurrentMap<Integer, Job> jobs;
 
         Binder(JobService service) {
             super();
             this.serviceRef = new WeakReference<>(service);
-            this.callbacks = new SparseArray<>(1);
+            this.jobs = new ConcurrentHashMap<>(4);
         }
 
-        public synchronized boolean startJob(JobParameters params, Callback callback) {
+        public boolean startJob(JobParameters params, Callback callback) {
             JobService service = serviceRef.get();
             if (service != null) {
-                callbacks.put(params.getJobId(), callback);
+                Job job = new Job(callback);
+                jobs.put(params.getJobId(), job);
                 boolean willContinueRunning = service.onStartJob(params);
-                if (!willContinueRunning) {
-                    callbacks.remove(params.getJobId());
+                if (willContinueRunning) {
+                    job.state.compareAndSet(Job.STARTING, Job.RUNNING);
+                } else if (job.state.compareAndSet(Job.STARTING, Job.FINISHED)) {
+                    jobs.remove(params.getJobId(), job);
                 }
                 return willContinueRunning;
             } else {
@@ -70,26 +77,55 @@ public abstract class JobService extends Service {
             }
         }
 
-        public synchronized boolean stopJob(JobParameters params) {
+        public boolean stopJob(JobParameters params) {
             JobService service = serviceRef.get();
             if (service != null) {
-                callbacks.remove(params.getJobId());
-                return service.onStopJob(params);
+                Job job = jobs.get(params.getJobId());
+                boolean stopping = job != null && (job.state.compareAndSet(Job.RUNNING, Job.STOPPING)
+                        || job.state.compareAndSet(Job.STARTING, Job.STOPPING));
+                if (!stopping) {
+                    // Already finished, or unknown. There's nothing left to stop.
+                    return false;
+                }
+                jobs.remove(params.getJobId(), job);
+                try {
+                    return service.onStopJob(params);
+                } finally {
+                    job.state.set(Job.FINISHED);
+                }
             } else {
                 return false;
             }
         }
 
-        synchronized void notifyJobFinished(JobParameters params, boolean needsReschedule) {
-            Callback callback = callbacks.get(params.getJobId());
-            if (callback != null) {
-                callbacks.remove(params.getJobId());
-                callback.jobFinished(params, needsReschedule);
+        void notifyJobFinished(JobParameters params, boolean needsReschedule) {
+            Job job = jobs.get(params.getJobId());
+            if (job != null && (job.state.compareAndSet(Job.RUNNING, Job.FINISHED)
+                    || job.state.compareAndSet(Job.STARTING, Job.FINISHED))) {
+                jobs.remove(params.getJobId(), job);
+                job.callback.jobFinished(params, needsReschedule);
             }
         }
 
         public interface Callback {
             void jobFinished(JobParameters params, boolean needsReschedule);
         }
+
+        /**
+         * A job's callback and state. Only the transition to {@link #FINISHED} notifies the callback.
+         */
+        private static class Job {
+            static final int STARTING = 0;
+            static final int RUNNING = 1;
+            static final int STOPPING = 2;
+            static final int FINISHED = 3;
+
+            final Callback callback;
+            final AtomicInteger state = new AtomicInteger(STARTING);
+
+            Job(Callback callback) {
+                this.callback = callback;
+            }
+        }
     }
 }
@@ -6,6 +6,7 @@ import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,6 +15,18 @@ import androidx.annotation.RestrictTo;
 
 /**
  * Same as android.os.PersistableBundle, with minor modifications and unused code removed.
+ *
+ * Entries are kept in parallel arrays sorted by key and looked up through binary search, similarly to ArrayMap. Each
+ * entry has a type tag, and ints, longs, doubles and booleans are stored unboxed in {@link #primitives}, so that
+ * putting and converting numeric extras doesn't allocate.
+ *
+ * Bundles can be frozen through {@link #frozenCopy()}, as {@link JobInfo} does with its extras. Frozen bundles can't be
+ * modified, so they compute their conversions once and reuse them. Copies of a frozen bundle share its entries until
+ * they're first modified, and reuse its conversions until then. Their nested bundles are copied likewise when first
+ * retrieved, so that they can be modified too.
+ *
+ * An estimate of the size of the entries once persisted is kept up to date as they're put and removed, so that
+ * {@link #getEstimatedSize()} doesn't need to walk them.
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class PersistableBundle implements Parcelable {
@@ -25,34 +38,97 @@ public final class PersistableBundle implements Parcelable {
      */
     private static final String PREFIX_BOOLEAN_COMPAT = "☃boolean☃compat☃";
 
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_ARRAY = 6;
+    private static final byte TYPE_INT_ARRAY = 7;
+    private static final byte TYPE_LONG_ARRAY = 8;
+    private static final byte TYPE_DOUBLE_ARRAY = 9;
+    private static final byte TYPE_BOOLEAN_ARRAY = 10;
+    private static final byte TYPE_BUNDLE = 11;
+
+    private static final int MIN_CAPACITY = 4;
+
+    /*
+     * Approximate sizes, in bytes, of entries as written by XmlUtils, eg. <int name="key" value="1" />. Escaping and
+     * multi-byte characters are ignored.
+     */
+    private static final int ENTRY_SIZE = 24;
+    private static final int ITEM_SIZE = 16;
+    private static final int INT_SIZE = 11;
+    private static final int LONG_SIZE = 20;
+    private static final int DOUBLE_SIZE = 24;
+    private static final int BOOLEAN_SIZE = 5;
+
+    private static final String[] EMPTY_KEYS = new String[0];
+    private static final byte[] EMPTY_TYPES = new byte[0];
+    private static final long[] EMPTY_PRIMITIVES = new long[0];
+    private static final Object[] EMPTY_OBJECTS = new Object[0];
+
     public static final PersistableBundle EMPTY;
     static {
         EMPTY = new PersistableBundle();
-    }
-
-    private final Map<String, Object> map;
+        EMPTY.frozen = true;
+    }
+
+    /** Keys, sorted. Only the first {@link #size} entries of each array are used. */
+    private String[] keys;
+    /** Type of each entry, one of the {@code TYPE_*} constants. */
+    private byte[] types;
+    /** Value of each int, long, double (as raw bits) and boolean (as 0 or 1) entry. */
+    private long[] primitives;
+    /** Value of every other entry. */
+    private Object[] objects;
+    private int size;
+    /** Estimated size of the entries once persisted, excluding the contents of nested bundles, which may change. */
+    private int estimatedSize;
+
+    /** Whether this bundle is immutable, in which case its conversions are memoized. */
+    private boolean frozen;
+    /** Frozen bundle whose arrays this one shares until it's first modified, if any. */
+    private PersistableBundle source;
+
+    /** Memoized conversions of a frozen bundle, guarded by itself. */
+    private Bundle bundle;
+    private Object persistableBundle;
+    private Map<String, ?> map;
+    private int mapDepth;
 
     public PersistableBundle() {
-        this.map = new HashMap<>();
+        this(0);
     }
 
     public PersistableBundle(PersistableBundle bundle) {
-        this.map = new HashMap<>(bundle.map);
+        size = bundle.size;
+        estimatedSize = bundle.estimatedSize;
+        PersistableBundle snapshot = bundle.getSnapshot();
+        if (snapshot != null) {
+            // Share the frozen arrays, copy-on-write.
+            source = snapshot;
+            keys = snapshot.keys;
+            types = snapshot.types;
+            primitives = snapshot.primitives;
+            objects = snapshot.objects;
+        } else {
+            keys = Arrays.copyOf(bundle.keys, size);
+            types = Arrays.copyOf(bundle.types, size);
+            primitives = Arrays.copyOf(bundle.primitives, size);
+            objects = Arrays.copyOf(bundle.objects, size);
+        }
     }
 
     public PersistableBundle(Bundle bundle) {
-        map = new HashMap<>(bundle.size());
+        this(bundle.size());
         for (String key : bundle.keySet()) {
             Object value = bundle.get(key);
-            if (value == null || value instanceof String || value instanceof Integer || value instanceof Long
-                    || value instanceof Double || value instanceof Boolean || value instanceof String[]
-                    || value instanceof int[] || value instanceof long[] || value instanceof double[]
-                    || value instanceof boolean[]) {
-                map.put(key, value);
-            } else if (value instanceof Bundle) {
-                map.put(key, new PersistableBundle((Bundle) value));
+            if (value instanceof Bundle) {
+                putPersistableBundleCompat(key, new PersistableBundle((Bundle) value));
             } else {
-                throw new IllegalArgumentException("Unsupported value type key=" + key + " value=" + value);
+                putValue(key, value);
             }
         }
     }
@@ -60,32 +136,28 @@ public final class PersistableBundle implements Parcelable {
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public PersistableBundle(android.os.PersistableBundle bundle) {
-        map = new HashMap<>(bundle.size());
+        this(bundle.size());
         for (String key : bundle.keySet()) {
             Object value = bundle.get(key);
-            if (value == null || value instanceof String || value instanceof Integer || value instanceof Long
-                    || value instanceof Double || value instanceof Boolean || value instanceof String[]
-                    || value instanceof int[] || value instanceof long[] || value instanceof double[]
-                    || value instanceof boolean[]) {
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1 && key.startsWith(PREFIX_BOOLEAN_COMPAT)) {
-                    key = key.substring(PREFIX_BOOLEAN_COMPAT.length());
-                    if (value instanceof Integer) {
-                        Integer intValue = (Integer) value;
-                        value = intValue != 0;
-                    } else if (value instanceof int[]) {
-                        int[] intArrayValue = (int[]) value;
-                        boolean[] boolArrayValue = new boolean[intArrayValue.length];
-                        for (int i = 0; i < boolArrayValue.length; i++) {
-                            boolArrayValue[i] = intArrayValue[i] != 0;
-                        }
-                        value = boolArrayValue;
+            if (value instanceof android.os.PersistableBundle) {
+                putPersistableBundleCompat(key, new PersistableBundle((android.os.PersistableBundle) value));
+            } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1
+                    && key.startsWith(PREFIX_BOOLEAN_COMPAT)) {
+                key = key.substring(PREFIX_BOOLEAN_COMPAT.length());
+                if (value instanceof Integer) {
+                    putBoolean(key, (Integer) value != 0);
+                } else if (value instanceof int[]) {
+                    int[] intArrayValue = (int[]) value;
+                    boolean[] boolArrayValue = new boolean[intArrayValue.length];
+                    for (int i = 0; i < boolArrayValue.length; i++) {
+                        boolArrayValue[i] = intArrayValue[i] != 0;
                     }
+                    putBooleanArray(key, boolArrayValue);
+                } else {
+                    putValue(key, value);
                 }
-                map.put(key, value);
-            } else if (value instanceof android.os.PersistableBundle) {
-                map.put(key, new PersistableBundle((android.os.PersistableBundle) value));
             } else {
-                throw new IllegalArgumentException("Unsupported value type key=" + key + " value=" + value);
+                putValue(key, value);
             }
         }
     }
@@ -93,42 +165,70 @@ public final class PersistableBundle implements Parcelable {
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     @SuppressWarnings("unchecked")
     public PersistableBundle(Map<String, ?> map, int depth) {
-        if (depth <= 0) {
-            this.map = new HashMap<>(0);
-        } else {
-            this.map = new HashMap<>(map);
-            for (String key : this.map.keySet()) {
-                Object object = this.map.get(key);
-                if (object instanceof Map) {
-                    this.map.put(key, new PersistableBundle((Map<String, Object>) object, depth - 1));
+        this(depth > 0 ? map.size() : 0);
+        if (depth > 0) {
+            for (Map.Entry<String, ?> entry : map.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Map) {
+                    putPersistableBundleCompat(
+                            entry.getKey(), new PersistableBundle((Map<String, Object>) value, depth - 1));
+                } else {
+                    putValue(entry.getKey(), value);
                 }
             }
         }
     }
 
+    private PersistableBundle(int capacity) {
+        if (capacity > 0) {
+            keys = new String[capacity];
+            types = new byte[capacity];
+            primitives = new long[capacity];
+            objects = new Object[capacity];
+        } else {
+            keys = EMPTY_KEYS;
+            types = EMPTY_TYPES;
+            primitives = EMPTY_PRIMITIVES;
+            objects = EMPTY_OBJECTS;
+        }
+    }
+
     public boolean containsKey(String key) {
-        return map.containsKey(key);
+        return indexOf(key) >= 0;
     }
 
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size == 0;
     }
 
     public int size() {
-        return map.size();
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the size of this bundle once persisted, in bytes, including nested bundles.
+     */
+    public int getEstimatedSize() {
+        int estimatedSize = this.estimatedSize;
+        for (int i = 0; i < size; i++) {
+            if (types[i] == TYPE_BUNDLE) {
+                estimatedSize += ((PersistableBundle) objects[i]).getEstimatedSize();
+            }
+        }
+        return estimatedSize;
     }
 
     public Object get(String key) {
-        return map.get(key);
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        return types[index] == TYPE_BUNDLE ? getBundle(index) : getValue(index);
     }
 
     public String getString(String key, String defaultValue) {
-        Object value = map.get(key);
-        if (value instanceof String) {
-            return (String) value;
-        } else {
-            return defaultValue;
-        }
+        int index = indexOf(key, TYPE_STRING);
+        return index >= 0 ? (String) objects[index] : defaultValue;
     }
 
     public String getString(String key) {
@@ -136,12 +236,8 @@ public final class PersistableBundle implements Parcelable {
     }
 
     public int getInt(String key, int defaultValue) {
-        Object value = map.get(key);
-        if (value instanceof Integer) {
-            return (Integer) value;
-        } else {
-            return defaultValue;
-        }
+        int index = indexOf(key, TYPE_INT);
+        return index >= 0 ? (int) primitives[index] : defaultValue;
     }
 
     public int getInt(String key) {
@@ -149,12 +245,8 @@ public final class PersistableBundle implements Parcelable {
     }
 
     public long getLong(String key, long defaultValue) {
-        Object value = map.get(key);
-        if (value instanceof Long) {
-            return (Long) value;
-        } else {
-            return defaultValue;
-        }
+        int index = indexOf(key, TYPE_LONG);
+        return index >= 0 ? primitives[index] : defaultValue;
     }
 
     public long getLong(String key) {
@@ -162,12 +254,8 @@ public final class PersistableBundle implements Parcelable {
     }
 
     public double getDouble(String key, double defaultValue) {
-        Object value = map.get(key);
-        if (value instanceof Double) {
-            return (Double) value;
-        } else {
-            return defaultValue;
-        }
+        int index = indexOf(key, TYPE_DOUBLE);
+        return index >= 0 ? Double.longBitsToDouble(primitives[index]) : defaultValue;
     }
 
     public double getDouble(String key) {
@@ -179,232 +267,567 @@ public final class PersistableBundle implements Parcelable {
     }
 
     public boolean getBoolean(String key, boolean defaultValue) {
-        Object value = map.get(key);
-        if (value instanceof Boolean) {
-            return (Boolean) value;
-        } else {
-            return defaultValue;
-        }
+        int index = indexOf(key, TYPE_BOOLEAN);
+        return index >= 0 ? primitives[index] != 0L : defaultValue;
     }
 
     public String[] getStringArray(String key) {
-        Object value = map.get(key);
-        if (value instanceof String[]) {
-            return (String[]) value;
-        } else {
-            return null;
-        }
+        int index = indexOf(key, TYPE_STRING_ARRAY);
+        return index >= 0 ? (String[]) objects[index] : null;
     }
 
     public int[] getIntArray(String key) {
-        Object value = map.get(key);
-        if (value instanceof int[]) {
-            return (int[]) value;
-        } else {
-            return null;
-        }
+        int index = indexOf(key, TYPE_INT_ARRAY);
+        return index >= 0 ? (int[]) objects[index] : null;
     }
 
     public long[] getLongArray(String key) {
-        Object value = map.get(key);
-        if (value instanceof long[]) {
-            return (long[]) value;
-        } else {
-            return null;
-        }
+        int index = indexOf(key, TYPE_LONG_ARRAY);
+        return index >= 0 ? (long[]) objects[index] : null;
     }
 
     public double[] getDoubleArray(String key) {
-        Object value = map.get(key);
-        if (value instanceof double[]) {
-            return (double[]) value;
-        } else {
-            return null;
-        }
+        int index = indexOf(key, TYPE_DOUBLE_ARRAY);
+        return index >= 0 ? (double[]) objects[index] : null;
     }
 
     public boolean[] getBooleanArray(String key) {
-        Object value = map.get(key);
-        if (value instanceof boolean[]) {
-            return (boolean[]) value;
-        } else {
-            return null;
-        }
+        int index = indexOf(key, TYPE_BOOLEAN_ARRAY);
+        return index >= 0 ? (boolean[]) objects[index] : null;
     }
 
     public PersistableBundle getPersistableBundleCompat(String key) {
-        Object value = map.get(key);
-        if (value instanceof PersistableBundle) {
-            return (PersistableBundle) value;
-        } else {
-            return null;
-        }
+        int index = indexOf(key, TYPE_BUNDLE);
+        return index >= 0 ? getBundle(index) : null;
     }
 
     public void putString(String key, String value) {
-        map.put(key, value);
+        putObject(key, TYPE_STRING, value);
     }
 
     public void putInt(String key, int value) {
-        map.put(key, value);
+        putPrimitive(key, TYPE_INT, value);
     }
 
     public void putLong(String key, long value) {
-        map.put(key, value);
+        putPrimitive(key, TYPE_LONG, value);
     }
 
     public void putDouble(String key, double value) {
-        map.put(key, value);
+        putPrimitive(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
     }
 
     public void putBoolean(String key, boolean value) {
-        map.put(key, value);
+        putPrimitive(key, TYPE_BOOLEAN, value ? 1L : 0L);
     }
 
     public void putStringArray(String key, String[] value) {
-        map.put(key, value);
+        putObject(key, TYPE_STRING_ARRAY, value);
     }
 
     public void putIntArray(String key, int[] value) {
-        map.put(key, value);
+        putObject(key, TYPE_INT_ARRAY, value);
     }
 
     public void putLongArray(String key, long[] value) {
-        map.put(key, value);
+        putObject(key, TYPE_LONG_ARRAY, value);
     }
 
     public void putDoubleArray(String key, double[] value) {
-        map.put(key, value);
+        putObject(key, TYPE_DOUBLE_ARRAY, value);
     }
 
     public void putBooleanArray(String key, boolean[] value) {
-        map.put(key, value);
+        putObject(key, TYPE_BOOLEAN_ARRAY, value);
     }
 
     public void putPersistableBundleCompat(String key, PersistableBundle value) {
-        map.put(key, value);
+        putObject(key, TYPE_BUNDLE, value);
     }
 
     public void putAll(PersistableBundle bundle) {
-        map.putAll(bundle.map);
+        mutate();
+        for (int i = 0; i < bundle.size; i++) {
+            int index = prepare(bundle.keys[i]);
+            types[index] = bundle.types[i];
+            primitives[index] = bundle.primitives[i];
+            objects[index] = bundle.objects[i];
+            estimatedSize += estimateEntrySize(index);
+        }
     }
 
     public void remove(String key) {
-        map.remove(key);
+        int index = indexOf(key);
+        if (index >= 0) {
+            mutate();
+            estimatedSize -= estimateEntrySize(index);
+            int moved = size - index - 1;
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(types, index + 1, types, index, moved);
+            System.arraycopy(primitives, index + 1, primitives, index, moved);
+            System.arraycopy(objects, index + 1, objects, index, moved);
+            size--;
+            keys[size] = null;
+            objects[size] = null;
+        }
     }
 
     public void clear() {
-        map.clear();
+        checkNotFrozen();
+        if (source != null) {
+            source = null;
+            keys = EMPTY_KEYS;
+            types = EMPTY_TYPES;
+            primitives = EMPTY_PRIMITIVES;
+            objects = EMPTY_OBJECTS;
+        } else {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(objects, 0, size, null);
+        }
+        size = 0;
+        estimatedSize = 0;
+    }
+
+    /**
+     * Returns an immutable copy of this bundle, including nested bundles, or this bundle if it's already immutable.
+     * Array values are shared, and shouldn't be modified.
+     */
+    @NonNull
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public PersistableBundle frozenCopy() {
+        PersistableBundle snapshot = getSnapshot();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        PersistableBundle copy = new PersistableBundle(this);
+        for (int i = 0; i < size; i++) {
+            if (types[i] == TYPE_BUNDLE) {
+                copy.objects[i] = ((PersistableBundle) objects[i]).frozenCopy();
+            }
+        }
+        copy.frozen = true;
+        return copy;
     }
 
     @NonNull
     public Bundle toBundle() {
-        Bundle bundle = new Bundle(map.size());
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
-            if (value == null) {
-                bundle.putString(key, null);
-            } else if (value instanceof String) {
-                bundle.putString(key, (String) value);
-            } else if (value instanceof Integer) {
-                bundle.putInt(key, (Integer) value);
-            } else if (value instanceof Long) {
-                bundle.putLong(key, (Long) value);
-            } else if (value instanceof Double) {
-                bundle.putDouble(key, (Double) value);
-            } else if (value instanceof Boolean) {
-                bundle.putBoolean(key, (Boolean) value);
-            } else if (value instanceof String[]) {
-                bundle.putStringArray(key, (String[]) value);
-            } else if (value instanceof int[]) {
-                bundle.putIntArray(key, (int[]) value);
-            } else if (value instanceof long[]) {
-                bundle.putLongArray(key, (long[]) value);
-            } else if (value instanceof double[]) {
-                bundle.putDoubleArray(key, (double[]) value);
-            } else if (value instanceof boolean[]) {
-                bundle.putBooleanArray(key, (boolean[]) value);
-            } else if (value instanceof PersistableBundle) {
-                bundle.putBundle(key, ((PersistableBundle) value).toBundle());
+        PersistableBundle snapshot = getSnapshot();
+        if (snapshot == null) {
+            return convertToBundle();
+        }
+        synchronized (snapshot) {
+            if (snapshot.bundle == null) {
+                snapshot.bundle = snapshot.convertToBundle();
+            }
+            // Callers may modify the result, including its nested bundles.
+            return copyBundle(snapshot.bundle);
+        }
+    }
+
+    /**
+     * Returns a copy of {@code bundle} and its nested bundles. Other values, such as arrays, are shared.
+     */
+    private static Bundle copyBundle(Bundle bundle) {
+        Bundle copy = new Bundle(bundle);
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                copy.putBundle(key, copyBundle((Bundle) value));
+            }
+        }
+        return copy;
+    }
+
+    private Bundle convertToBundle() {
+        Bundle bundle = new Bundle(size);
+        for (int i = 0; i < size; i++) {
+            String key = keys[i];
+            Object value = objects[i];
+            switch (types[i]) {
+                case TYPE_NULL:
+                    bundle.putString(key, null);
+                    break;
+                case TYPE_STRING:
+                    bundle.putString(key, (String) value);
+                    break;
+                case TYPE_INT:
+                    bundle.putInt(key, (int) primitives[i]);
+                    break;
+                case TYPE_LONG:
+                    bundle.putLong(key, primitives[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    bundle.putDouble(key, Double.longBitsToDouble(primitives[i]));
+                    break;
+                case TYPE_BOOLEAN:
+                    bundle.putBoolean(key, primitives[i] != 0L);
+                    break;
+                case TYPE_STRING_ARRAY:
+                    bundle.putStringArray(key, (String[]) value);
+                    break;
+                case TYPE_INT_ARRAY:
+                    bundle.putIntArray(key, (int[]) value);
+                    break;
+                case TYPE_LONG_ARRAY:
+                    bundle.putLongArray(key, (long[]) value);
+                    break;
+                case TYPE_DOUBLE_ARRAY:
+                    bundle.putDoubleArray(key, (double[]) value);
+                    break;
+                case TYPE_BOOLEAN_ARRAY:
+                    bundle.putBooleanArray(key, (boolean[]) value);
+                    break;
+                case TYPE_BUNDLE:
+                    bundle.putBundle(key, ((PersistableBundle) value).toBundle());
+                    break;
             }
         }
         return bundle;
     }
 
+    /**
+     * Returns this bundle as a platform bundle, which is shared if this bundle is frozen and shouldn't be modified.
+     */
     @NonNull
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public android.os.PersistableBundle toPersistableBundle() {
-        android.os.PersistableBundle bundle = new android.os.PersistableBundle(map.size());
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
-            if (value == null) {
-                bundle.putString(key, null);
-            } else if (value instanceof String) {
-                bundle.putString(key, (String) value);
-            } else if (value instanceof Integer) {
-                bundle.putInt(key, (Integer) value);
-            } else if (value instanceof Long) {
-                bundle.putLong(key, (Long) value);
-            } else if (value instanceof Double) {
-                bundle.putDouble(key, (Double) value);
-            } else if (value instanceof Boolean) {
-                Boolean booleanValue = (Boolean) value;
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
-                    bundle.putInt(PREFIX_BOOLEAN_COMPAT + key, booleanValue ? 1 : 0);
-                } else {
-                    bundle.putBoolean(key, booleanValue);
-                }
-            } else if (value instanceof String[]) {
-                bundle.putStringArray(key, (String[]) value);
-            } else if (value instanceof int[]) {
-                bundle.putIntArray(key, (int[]) value);
-            } else if (value instanceof long[]) {
-                bundle.putLongArray(key, (long[]) value);
-            } else if (value instanceof double[]) {
-                bundle.putDoubleArray(key, (double[]) value);
-            } else if (value instanceof boolean[]) {
-                boolean[] booleanArrayValue = (boolean[]) value;
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
-                    int[] intArrayValue = new int[booleanArrayValue.length];
-                    for (int i = 0; i < booleanArrayValue.length; i++) {
-                        intArrayValue[i] = booleanArrayValue[i] ? 1 : 0;
+        PersistableBundle snapshot = getSnapshot();
+        if (snapshot == null) {
+            return convertToPersistableBundle();
+        }
+        synchronized (snapshot) {
+            if (snapshot.persistableBundle == null) {
+                snapshot.persistableBundle = snapshot.convertToPersistableBundle();
+            }
+            return (android.os.PersistableBundle) snapshot.persistableBundle;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private android.os.PersistableBundle convertToPersistableBundle() {
+        android.os.PersistableBundle bundle = new android.os.PersistableBundle(size);
+        for (int i = 0; i < size; i++) {
+            String key = keys[i];
+            Object value = objects[i];
+            switch (types[i]) {
+                case TYPE_NULL:
+                    bundle.putString(key, null);
+                    break;
+                case TYPE_STRING:
+                    bundle.putString(key, (String) value);
+                    break;
+                case TYPE_INT:
+                    bundle.putInt(key, (int) primitives[i]);
+                    break;
+                case TYPE_LONG:
+                    bundle.putLong(key, primitives[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    bundle.putDouble(key, Double.longBitsToDouble(primitives[i]));
+                    break;
+                case TYPE_BOOLEAN:
+                    boolean booleanValue = primitives[i] != 0L;
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+                        bundle.putInt(PREFIX_BOOLEAN_COMPAT + key, booleanValue ? 1 : 0);
+                    } else {
+                        bundle.putBoolean(key, booleanValue);
                     }
-                    bundle.putIntArray(PREFIX_BOOLEAN_COMPAT + key, intArrayValue);
-                } else {
-                    bundle.putBooleanArray(key, booleanArrayValue);
-                }
-            } else if (value instanceof PersistableBundle) {
-                bundle.putPersistableBundle(key, ((PersistableBundle) value).toPersistableBundle());
+                    break;
+                case TYPE_STRING_ARRAY:
+                    bundle.putStringArray(key, (String[]) value);
+                    break;
+                case TYPE_INT_ARRAY:
+                    bundle.putIntArray(key, (int[]) value);
+                    break;
+                case TYPE_LONG_ARRAY:
+                    bundle.putLongArray(key, (long[]) value);
+                    break;
+                case TYPE_DOUBLE_ARRAY:
+                    bundle.putDoubleArray(key, (double[]) value);
+                    break;
+                case TYPE_BOOLEAN_ARRAY:
+                    boolean[] booleanArrayValue = (boolean[]) value;
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+                        int[] intArrayValue = new int[booleanArrayValue.length];
+                        for (int j = 0; j < booleanArrayValue.length; j++) {
+                            intArrayValue[j] = booleanArrayValue[j] ? 1 : 0;
+                        }
+                        bundle.putIntArray(PREFIX_BOOLEAN_COMPAT + key, intArrayValue);
+                    } else {
+                        bundle.putBooleanArray(key, booleanArrayValue);
+                    }
+                    break;
+                case TYPE_BUNDLE:
+                    bundle.putPersistableBundle(key, ((PersistableBundle) value).toPersistableBundle());
+                    break;
             }
         }
         return bundle;
     }
 
+    /**
+     * Returns this bundle as a map, nested up to {@code depth}, which is shared if this bundle is frozen and shouldn't
+     * be modified.
+     */
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public Map<String, ?> toMap(int depth) {
         if (depth <= 0) {
             return null;
         }
-        Map<String, Object> map = new HashMap<>(this.map);
-        for (String key : map.keySet()) {
-            Object object = map.get(key);
-            if (object instanceof PersistableBundle) {
-                map.put(key, ((PersistableBundle) object).toMap(depth - 1));
+        PersistableBundle snapshot = getSnapshot();
+        if (snapshot == null) {
+            return convertToMap(depth);
+        }
+        synchronized (snapshot) {
+            if (snapshot.map == null || snapshot.mapDepth != depth) {
+                snapshot.map = snapshot.convertToMap(depth);
+                snapshot.mapDepth = depth;
+            }
+            return snapshot.map;
+        }
+    }
+
+    private Map<String, ?> convertToMap(int depth) {
+        Map<String, Object> map = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            if (types[i] == TYPE_BUNDLE) {
+                map.put(keys[i], ((PersistableBundle) objects[i]).toMap(depth - 1));
+            } else {
+                map.put(keys[i], getValue(i));
             }
         }
         return map;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Returns the index of {@code key}, or the bitwise complement of the index it would be inserted at.
+     */
+    private int indexOf(String key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareKeys(keys[mid], key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~low;
+    }
+
+    /**
+     * Returns the index of {@code key} if its value is of {@code type}, or a negative number otherwise.
+     */
+    private int indexOf(String key, byte type) {
+        int index = indexOf(key);
+        return index >= 0 && types[index] == type ? index : -1;
+    }
+
+    private static int compareKeys(String key1, String key2) {
+        if (key1 == null) {
+            return key2 == null ? 0 : -1;
+        } else {
+            return key2 == null ? 1 : key1.compareTo(key2);
+        }
+    }
+
+    /**
+     * Returns the frozen bundle holding this bundle's entries, ie. itself if frozen or the source it still shares
+     * arrays with, or {@code null} if there's none.
+     */
+    private PersistableBundle getSnapshot() {
+        return frozen ? this : source;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Frozen bundles can't be modified");
+        }
+    }
+
+    /**
+     * Prepares this bundle for modification, copying the arrays shared with its source, if any.
+     */
+    private void mutate() {
+        checkNotFrozen();
+        if (source != null) {
+            int capacity = Math.max(size, MIN_CAPACITY);
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            source = null;
+        }
+    }
+
+    /**
+     * Returns the index of {@code key}, inserting an entry for it if there isn't one yet. The existing entry's size is
+     * taken out of the estimate, callers add the new one's back once set.
+     */
+    private int prepare(String key) {
+        mutate();
+        int index = indexOf(key);
+        if (index >= 0) {
+            estimatedSize -= estimateEntrySize(index);
+            return index;
+        }
+        index = ~index;
+        if (size == keys.length) {
+            int capacity = Math.max(MIN_CAPACITY, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        int moved = size - index;
+        System.arraycopy(keys, index, keys, index + 1, moved);
+        System.arraycopy(types, index, types, index + 1, moved);
+        System.arraycopy(primitives, index, primitives, index + 1, moved);
+        System.arraycopy(objects, index, objects, index + 1, moved);
+        keys[index] = key;
+        size++;
+        return index;
+    }
+
+    private void putPrimitive(String key, byte type, long value) {
+        int index = prepare(key);
+        types[index] = type;
+        primitives[index] = value;
+        objects[index] = null;
+        estimatedSize += estimateEntrySize(index);
+    }
+
+    private void putObject(String key, byte type, Object value) {
+        int index = prepare(key);
+        types[index] = value != null ? type : TYPE_NULL;
+        primitives[index] = 0L;
+        objects[index] = value;
+        estimatedSize += estimateEntrySize(index);
+    }
+
+    /**
+     * Returns the estimated size of the entry at {@code index} once persisted, excluding the contents of nested
+     * bundles.
+     */
+    private int estimateEntrySize(int index) {
+        int entrySize = ENTRY_SIZE + (keys[index] != null ? keys[index].length() : 0);
+        Object value = objects[index];
+        switch (types[index]) {
+            case TYPE_STRING:
+                return entrySize + ((String) value).length();
+            case TYPE_INT:
+                return entrySize + INT_SIZE;
+            case TYPE_LONG:
+                return entrySize + LONG_SIZE;
+            case TYPE_DOUBLE:
+                return entrySize + DOUBLE_SIZE;
+            case TYPE_BOOLEAN:
+                return entrySize + BOOLEAN_SIZE;
+            case TYPE_STRING_ARRAY:
+                for (String item : (String[]) value) {
+                    entrySize += ITEM_SIZE + (item != null ? item.length() : 0);
+                }
+                return entrySize;
+            case TYPE_INT_ARRAY:
+                return entrySize + ((int[]) value).length * (ITEM_SIZE + INT_SIZE);
+            case TYPE_LONG_ARRAY:
+                return entrySize + ((long[]) value).length * (ITEM_SIZE + LONG_SIZE);
+            case TYPE_DOUBLE_ARRAY:
+                return entrySize + ((double[]) value).length * (ITEM_SIZE + DOUBLE_SIZE);
+            case TYPE_BOOLEAN_ARRAY:
+                return entrySize + ((boolean[]) value).length * (ITEM_SIZE + BOOLEAN_SIZE);
+            default:
+                return entrySize;
+        }
+    }
+
+    /**
+     * Returns the nested bundle at {@code index}. If it's frozen but this bundle isn't, it's replaced with a
+     * copy-on-write copy first, so that it can be modified along with this bundle.
+     */
+    private PersistableBundle getBundle(int index) {
+        PersistableBundle value = (PersistableBundle) objects[index];
+        if (value.frozen && !frozen) {
+            mutate();
+            value = new PersistableBundle(value);
+            objects[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Puts {@code value} with the type matching its class, for values not known to be of a particular type.
+     */
+    private void putValue(String key, Object value) {
+        if (value == null) {
+            putObject(key, TYPE_NULL, null);
+        } else if (value instanceof String) {
+            putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            putLong(key, (Long) value);
+        } else if (value instanceof Double) {
+            putDouble(key, (Double) value);
+        } else if (value instanceof Boolean) {
+            putBoolean(key, (Boolean) value);
+        } else if (value instanceof String[]) {
+            putStringArray(key, (String[]) value);
+        } else if (value instanceof int[]) {
+            putIntArray(key, (int[]) value);
+        } else if (value instanceof long[]) {
+            putLongArray(key, (long[]) value);
+        } else if (value instanceof double[]) {
+            putDoubleArray(key, (double[]) value);
+        } else if (value instanceof boolean[]) {
+            putBooleanArray(key, (boolean[]) value);
+        } else if (value instanceof PersistableBundle) {
+            putPersistableBundleCompat(key, (PersistableBundle) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value type key=" + key + " value=" + value);
+        }
+    }
+
+    /**
+     * Returns the value at {@code index}, boxing it if it's primitive.
+     */
+    private Object getValue(int index) {
+        switch (types[index]) {
+            case TYPE_INT:
+                return (int) primitives[index];
+            case TYPE_LONG:
+                return primitives[index];
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(primitives[index]);
+            case TYPE_BOOLEAN:
+                return primitives[index] != 0L;
+            default:
+                return objects[index];
+        }
+    }
+
     PersistableBundle(Parcel in) {
-        this.map = (HashMap<String, Object>) in.readHashMap(PersistableBundle.class.getClassLoader());
+        this(0);
+        Map<?, ?> map = in.readHashMap(PersistableBundle.class.getClassLoader());
+        if (map != null) {
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                putValue((String) entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        // Written as a map with nested bundles as-is, as before entries were typed, to keep the format.
+        Map<String, Object> map = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], getValue(i));
+        }
         dest.writeMap(map);
     }
 
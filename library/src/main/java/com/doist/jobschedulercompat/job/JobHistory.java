@@ -0,0 +1,265 @@
+package com.doist.jobschedulercompat.job;
+
+import com.doist.jobschedulercompat.JobExecution;
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.util.BackgroundThread;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps the last {@link #MAX_EXECUTIONS} executions of all jobs in a ring buffer, to help diagnose when and how jobs
+ * ran after the fact.
+ *
+ * Executions are kept in memory and persisted next to the {@link JobStore} at most every {@link #PERSIST_DELAY}, on
+ * {@link BackgroundThread}, so that they survive the process being killed and the device rebooting.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class JobHistory {
+    private static final String LOG_TAG = "JobHistory";
+
+    public static final int MAX_EXECUTIONS = 100;
+
+    static final long PERSIST_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    /** Version of the file format. Files in other versions are discarded. */
+    private static final int FILE_VERSION = 1;
+
+    private static JobHistory instance;
+
+    public static synchronized JobHistory get(Context context) {
+        if (instance == null) {
+            instance = new JobHistory(context.getFilesDir());
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void reset() {
+        if (instance != null) {
+            BackgroundThread.getHandler().removeCallbacks(instance.persistRunnable);
+            instance = null;
+        }
+    }
+
+    /**
+     * Starts tracking an execution of {@code jobStatus}, to be recorded with
+     * {@link #record(Run, int, boolean)} once it stops.
+     */
+    public static Run start(JobStatus jobStatus) {
+        return new Run(jobStatus);
+    }
+
+    private final AtomicFile historyFile;
+
+    private final JobExecution[] executions = new JobExecution[MAX_EXECUTIONS];
+    /** Index where the next execution is written, overwriting the oldest one once full. */
+    private int next;
+    private int size;
+    private boolean persistPending;
+
+    private final Runnable persistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            persist();
+        }
+    };
+
+    private JobHistory(File dir) {
+        dir.mkdirs();
+        historyFile = new AtomicFile(new File(dir, "job-history"));
+        load();
+    }
+
+    /**
+     * Records the execution tracked by {@code run}, which stopped now, and schedules it to be persisted. Also reports
+     * it to the {@link JobSchedulerMetrics}, if any.
+     *
+     * @param stopReason one of the {@code JobExecution.STOP_REASON_*} constants.
+     */
+    public void record(Run run, int stopReason, boolean needsReschedule) {
+        long duration = SystemClock.elapsedRealtime() - run.startTimeElapsed;
+        JobExecution execution = new JobExecution(
+                run.jobId, run.schedulerTag, run.startTime, run.startTime + duration, duration,
+                stopReason, needsReschedule, run.requiredConstraints, run.satisfiedConstraints);
+        JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+        if (metrics != null) {
+            metrics.onJobStopped(run.jobId, run.schedulerTag, duration, stopReason);
+        }
+        synchronized (this) {
+            add(execution);
+            if (persistPending) {
+                return;
+            }
+            persistPending = true;
+        }
+        BackgroundThread.getHandler().postDelayed(persistRunnable, PERSIST_DELAY);
+    }
+
+    /**
+     * Returns the recorded executions of the job with {@code jobId}, oldest first.
+     */
+    @NonNull
+    public synchronized List<JobExecution> getExecutions(int jobId) {
+        List<JobExecution> jobExecutions = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            JobExecution execution = get(i);
+            if (execution.getJobId() == jobId) {
+                jobExecutions.add(execution);
+            }
+        }
+        return jobExecutions;
+    }
+
+    /**
+     * Returns the recorded executions of all jobs, oldest first.
+     */
+    @NonNull
+    public synchronized List<JobExecution> getExecutions() {
+        List<JobExecution> jobExecutions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            jobExecutions.add(get(i));
+        }
+        return jobExecutions;
+    }
+
+    /**
+     * Prints the recorded executions, most recent first, as part of a service's {@code dump()}.
+     */
+    public void dump(PrintWriter writer) {
+        List<JobExecution> jobExecutions = getExecutions();
+        writer.println("Job history (" + jobExecutions.size() + "/" + MAX_EXECUTIONS + "):");
+        for (int i = jobExecutions.size() - 1; i >= 0; i--) {
+            writer.print("  ");
+            writer.println(jobExecutions.get(i));
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < executions.length; i++) {
+            executions[i] = null;
+        }
+        next = 0;
+        size = 0;
+        if (!persistPending) {
+            persistPending = true;
+            BackgroundThread.getHandler().post(persistRunnable);
+        }
+    }
+
+    private void add(JobExecution execution) {
+        executions[next] = execution;
+        next = (next + 1) % MAX_EXECUTIONS;
+        size = Math.min(size + 1, MAX_EXECUTIONS);
+    }
+
+    /** Returns the {@code i}-th oldest execution. */
+    private JobExecution get(int i) {
+        return executions[(next - size + i + MAX_EXECUTIONS) % MAX_EXECUTIONS];
+    }
+
+    @VisibleForTesting
+    void persist() {
+        List<JobExecution> jobExecutions;
+        synchronized (this) {
+            persistPending = false;
+            jobExecutions = getExecutions();
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(jobExecutions.size());
+            for (JobExecution execution : jobExecutions) {
+                out.writeInt(execution.getJobId());
+                out.writeUTF(execution.getSchedulerTag());
+                out.writeLong(execution.getStartTime());
+                out.writeLong(execution.getEndTime());
+                out.writeLong(execution.getDuration());
+                out.writeInt(execution.getStopReason());
+                out.writeBoolean(execution.needsReschedule());
+                out.writeInt(execution.getRequiredConstraints());
+                out.writeInt(execution.getSatisfiedConstraints());
+            }
+            out.flush();
+
+            // Write out to disk in one fell sweep.
+            FileOutputStream fos = historyFile.startWrite();
+            fos.write(baos.toByteArray());
+            historyFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing job history", e);
+        }
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            FileInputStream fis = historyFile.openRead();
+            in = new DataInputStream(new BufferedInputStream(fis));
+            if (in.readInt() != FILE_VERSION) {
+                Log.d(LOG_TAG, "Discarding job history in an unknown format");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                add(new JobExecution(
+                        in.readInt(), in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt(),
+                        in.readBoolean(), in.readInt(), in.readInt()));
+            }
+        } catch (FileNotFoundException e) {
+            // No history yet.
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading job history", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Execution of a job that is still running, holding what's known about it when it started.
+     */
+    public static final class Run {
+        private final int jobId;
+        private final String schedulerTag;
+        private final long startTime;
+        private final long startTimeElapsed;
+        private final int requiredConstraints;
+        private final int satisfiedConstraints;
+
+        private Run(JobStatus jobStatus) {
+            jobId = jobStatus.getJobId();
+            schedulerTag = jobStatus.getSchedulerTag();
+            startTime = System.currentTimeMillis();
+            startTimeElapsed = SystemClock.elapsedRealtime();
+            requiredConstraints = jobStatus.getRequiredConstraints();
+            satisfiedConstraints = jobStatus.getSatisfiedConstraints();
+        }
+    }
+}
@@ -7,8 +7,10 @@ import android.net.Uri;
 import android.os.SystemClock;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
 /**
@@ -18,6 +20,7 @@ import androidx.annotation.RestrictTo;
 public class JobStatus {
     public static final long NO_LATEST_RUNTIME = Long.MAX_VALUE;
     public static final long NO_EARLIEST_RUNTIME = 0L;
+    public static final long NO_READY_TIME = -1L;
 
     public static final int CONSTRAINT_CHARGING = JobInfo.CONSTRAINT_FLAG_CHARGING;
     public static final int CONSTRAINT_IDLE = JobInfo.CONSTRAINT_FLAG_DEVICE_IDLE;
@@ -49,6 +52,9 @@ public class JobStatus {
     /** The minimum possible update delay is 1 second. */
     public static final long MIN_TRIGGER_MAX_DELAY = 1000;
 
+    /** Jobs estimated to transfer at least 50MB prefer unmetered networks until their deadline. */
+    public static final long LARGE_NETWORK_TRANSFER_BYTES = 50 * 1024 * 1024;
+
     private static final int CONSTRAINTS_OF_INTEREST =
             CONSTRAINT_CHARGING | CONSTRAINT_BATTERY_NOT_LOW | CONSTRAINT_STORAGE_NOT_LOW |
                     CONSTRAINT_TIMING_DELAY |
@@ -63,20 +69,30 @@ public class JobStatus {
      * Earliest point in the future at which this job will be eligible to run. A value of 0
      * indicates there is no delay constraint. See {@link #hasTimingDelayConstraint()}.
      */
-    private final long earliestRunTimeElapsedMillis;
+    private volatile long earliestRunTimeElapsedMillis;
 
     /**
      * Latest point in the future at which this job must be run. A value of {@link Long#MAX_VALUE}
      * indicates there is no deadline constraint. See {@link #hasDeadlineConstraint()}.
      */
-    private final long latestRunTimeElapsedMillis;
+    private volatile long latestRunTimeElapsedMillis;
 
     /** How many times this job has failed, used to compute back-off. */
-    private final int numFailures;
+    private volatile int numFailures;
+
+    /**
+     * Incremented before and after each in-place update of the fields above, so it's odd while one is in progress.
+     * See {@link #getVersion()}.
+     */
+    private volatile int version;
+
+    /** When this job last became ready, or {@link #NO_READY_TIME}. See {@link #getReadyTimeElapsed()}. */
+    private volatile long readyTimeElapsedMillis = NO_READY_TIME;
 
     // Constraints.
-    private final int requiredConstraints;
-    private int satisfiedConstraints = 0;
+    private volatile int requiredConstraints;
+    private final AtomicInteger satisfiedConstraints = new AtomicInteger(0);
+    private volatile OnConstraintsChangedListener onConstraintsChangedListener;
 
     public Set<Uri> changedUris;
     public Set<String> changedAuthorities;
@@ -110,16 +126,11 @@ public class JobStatus {
                 break;
         }
 
-        if (earliestRunTimeElapsedMillis != NO_EARLIEST_RUNTIME) {
-            requiredConstraints |= CONSTRAINT_TIMING_DELAY;
-        }
-        if (latestRunTimeElapsedMillis != NO_LATEST_RUNTIME) {
-            requiredConstraints |= CONSTRAINT_DEADLINE;
-        }
         if (job.getTriggerContentUris() != null) {
             requiredConstraints |= CONSTRAINT_CONTENT_TRIGGER;
         }
-        this.requiredConstraints = requiredConstraints;
+        this.requiredConstraints =
+                requiredConstraints | getTimingConstraints(earliestRunTimeElapsedMillis, latestRunTimeElapsedMillis);
     }
 
     /**
@@ -151,6 +162,45 @@ public class JobStatus {
         return new JobStatus(job, scheduler, 0, earliestRunTimeElapsedMillis, latestRunTimeElapsedMillis);
     }
 
+    private static int getTimingConstraints(long earliestRunTimeElapsedMillis, long latestRunTimeElapsedMillis) {
+        int timingConstraints = 0;
+        if (earliestRunTimeElapsedMillis != NO_EARLIEST_RUNTIME) {
+            timingConstraints |= CONSTRAINT_TIMING_DELAY;
+        }
+        if (latestRunTimeElapsedMillis != NO_LATEST_RUNTIME) {
+            timingConstraints |= CONSTRAINT_DEADLINE;
+        }
+        return timingConstraints;
+    }
+
+    /**
+     * Updates the runtimes and failure count of this job in place, instead of replacing it with a new instance.
+     *
+     * Timing constraints are reset, as they depend on the new runtimes, but all other satisfied constraints are kept.
+     * Must be called while holding {@link JobStore#LOCK}, and followed by {@link JobStore#update(JobStatus)} to
+     * persist the change.
+     */
+    public void updateTiming(int numFailures, long earliestRunTimeElapsedMillis, long latestRunTimeElapsedMillis) {
+        version++;
+        this.numFailures = numFailures;
+        this.earliestRunTimeElapsedMillis = earliestRunTimeElapsedMillis;
+        this.latestRunTimeElapsedMillis = latestRunTimeElapsedMillis;
+        this.requiredConstraints = (requiredConstraints & ~(CONSTRAINT_TIMING_DELAY | CONSTRAINT_DEADLINE))
+                | getTimingConstraints(earliestRunTimeElapsedMillis, latestRunTimeElapsedMillis);
+        version++;
+        setConstraintSatisfied(CONSTRAINT_TIMING_DELAY | CONSTRAINT_DEADLINE, false);
+    }
+
+    /**
+     * Returns the version of this job's timing, incremented on each {@link #updateTiming(int, long, long)}.
+     *
+     * Readers not holding {@link JobStore#LOCK}, such as when persisting jobs, can read the timing consistently by
+     * retrying while the version is odd or changes during the read.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     @NonNull
     public JobInfo getJob() {
         return job;
@@ -194,6 +244,19 @@ public class JobStatus {
         return (requiredConstraints & CONSTRAINT_NOT_ROAMING) != 0;
     }
 
+    /**
+     * Returns whether this job should wait for an unmetered network even though it doesn't require one, due to the
+     * size of its estimated transfer. This only applies to jobs with a deadline, which bounds how long they wait.
+     */
+    public boolean prefersUnmeteredConnectivity() {
+        if (!hasDeadlineConstraint() || needsUnmeteredConnectivity() || needsMeteredConnectivity()) {
+            return false;
+        }
+        long downloadBytes = Math.max(job.getEstimatedNetworkDownloadBytes(), 0);
+        long uploadBytes = Math.max(job.getEstimatedNetworkUploadBytes(), 0);
+        return downloadBytes + uploadBytes >= LARGE_NETWORK_TRANSFER_BYTES;
+    }
+
     public boolean hasChargingConstraint() {
         return (requiredConstraints & CONSTRAINT_CHARGING) != 0;
     }
@@ -258,17 +321,73 @@ public class JobStatus {
         return latestRunTimeElapsedMillis;
     }
 
+    /**
+     * Sets whether {@code constraint} is satisfied. Safe to call from any thread, as updates to different constraints
+     * never overwrite each other.
+     *
+     * @return whether the constraint changed, in which case the {@link OnConstraintsChangedListener} is notified.
+     */
     public boolean setConstraintSatisfied(int constraint, boolean state) {
-        boolean old = (satisfiedConstraints & constraint) != 0;
-        if (old == state) {
-            return false;
+        int oldConstraints, newConstraints;
+        do {
+            oldConstraints = satisfiedConstraints.get();
+            newConstraints = (oldConstraints & ~constraint) | (state ? constraint : 0);
+            if (oldConstraints == newConstraints) {
+                return false;
+            }
+        } while (!satisfiedConstraints.compareAndSet(oldConstraints, newConstraints));
+        boolean wasReady = isReady(oldConstraints);
+        boolean ready = isReady(newConstraints);
+        if (!wasReady && ready) {
+            // Timing constraints are satisfied since their runtime, not since they were evaluated.
+            long readyTime = SystemClock.elapsedRealtime();
+            if ((constraint & CONSTRAINT_DEADLINE) != 0 && isDeadlineSatisfied(newConstraints)) {
+                readyTime = Math.min(readyTime, latestRunTimeElapsedMillis);
+            } else if ((constraint & CONSTRAINT_TIMING_DELAY) != 0) {
+                readyTime = Math.min(readyTime, earliestRunTimeElapsedMillis);
+            }
+            readyTimeElapsedMillis = readyTime;
+        } else if (wasReady && !ready) {
+            readyTimeElapsedMillis = NO_READY_TIME;
+        }
+        OnConstraintsChangedListener listener = onConstraintsChangedListener;
+        if (listener != null) {
+            listener.onConstraintsChanged(this, oldConstraints ^ newConstraints);
         }
-        satisfiedConstraints = (satisfiedConstraints & ~constraint) | (state ? constraint : 0);
         return true;
     }
 
     boolean isConstraintSatisfied(int constraint) {
-        return (satisfiedConstraints & constraint) != 0;
+        return (satisfiedConstraints.get() & constraint) != 0;
+    }
+
+    /**
+     * Returns when this job became ready to run, in elapsed realtime, or {@link #NO_READY_TIME} if unknown.
+     *
+     * Readiness is tracked as constraints are set, which only covers all of them for alarm-based jobs. For other jobs,
+     * it falls back to the earliest runtime, if any.
+     */
+    public long getReadyTimeElapsed() {
+        long readyTime = readyTimeElapsedMillis;
+        if (readyTime == NO_READY_TIME && hasTimingDelayConstraint()) {
+            readyTime = earliestRunTimeElapsedMillis;
+        }
+        return readyTime;
+    }
+
+    int getSatisfiedConstraints() {
+        return satisfiedConstraints.get();
+    }
+
+    int getRequiredConstraints() {
+        return requiredConstraints;
+    }
+
+    /**
+     * Sets the listener notified whenever a constraint on this job changes, or {@code null} to remove it.
+     */
+    public void setOnConstraintsChangedListener(@Nullable OnConstraintsChangedListener listener) {
+        onConstraintsChangedListener = listener;
     }
 
     /**
@@ -276,13 +395,17 @@ public class JobStatus {
      * of other constraints.
      */
     public boolean isDeadlineSatisfied() {
+        return isDeadlineSatisfied(satisfiedConstraints.get());
+    }
+
+    private boolean isDeadlineSatisfied(int satisfiedConstraints) {
         return !job.isPeriodic() && hasDeadlineConstraint() && (satisfiedConstraints & CONSTRAINT_DEADLINE) != 0;
     }
 
     /**
      * @return Whether the constraints set on this job are satisfied.
      */
-    private boolean isConstraintsSatisfied() {
+    private boolean isConstraintsSatisfied(int satisfiedConstraints) {
         final int req = requiredConstraints & CONSTRAINTS_OF_INTEREST;
         final int sat = satisfiedConstraints & CONSTRAINTS_OF_INTEREST;
         return (sat & req) == req;
@@ -293,8 +416,23 @@ public class JobStatus {
      * the constraints are satisfied <strong>or</strong> the deadline on the job has expired.
      */
     public boolean isReady() {
+        return isReady(satisfiedConstraints.get());
+    }
+
+    private boolean isReady(int satisfiedConstraints) {
         // Deadline constraint trumps other constraints (except for periodic jobs where deadline is an
         // implementation detail. A periodic job should only run if its constraints are satisfied).
-        return isConstraintsSatisfied() || isDeadlineSatisfied();
+        return isConstraintsSatisfied(satisfiedConstraints) || isDeadlineSatisfied(satisfiedConstraints);
+    }
+
+    /**
+     * Notified when a constraint on a job changes, on the thread that changed it.
+     */
+    public interface OnConstraintsChangedListener {
+        /**
+         * @param changedConstraints the constraint flags that changed, as passed to
+         *                           {@link JobStatus#setConstraintSatisfied(int, boolean)}.
+         */
+        void onConstraintsChanged(JobStatus jobStatus, int changedConstraints);
     }
 }
@@ -1,6 +1,8 @@
 package com.doist.jobschedulercompat.job;
 
 import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
 import com.doist.jobschedulercompat.PersistableBundle;
 import com.doist.jobschedulercompat.util.XmlUtils;
 
@@ -62,6 +64,9 @@ public class JobStore {
 
     private final AtomicFile jobsFile;
 
+    private final long loadDuration;
+    private final int loadedJobCount;
+
     @VisibleForTesting final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(1);
 
     private final Executor executor =
@@ -88,7 +93,21 @@ public class JobStore {
 
         jobSet = new JobSet();
 
+        // Metrics can't be registered yet, so always measure this and report it once they are.
+        long startTime = System.nanoTime();
         readJobMapFromDisk(jobSet);
+        loadDuration = System.nanoTime() - startTime;
+        loadedJobCount = jobSet.size();
+    }
+
+    /** Returns how many jobs were loaded from disk when the store was created. */
+    public int getLoadedJobCount() {
+        return loadedJobCount;
+    }
+
+    /** Returns how long loading jobs from disk took when the store was created, in nanoseconds. */
+    public long getLoadDuration() {
+        return loadDuration;
     }
 
     public JobStatus getJob(int jobId) {
@@ -114,6 +133,20 @@ public class JobStore {
         maybeWriteStatusToDiskAsync();
     }
 
+    /**
+     * Persist changes made in place to a job already in the master list, such as through
+     * {@link JobStatus#updateTiming(int, long, long)}.
+     *
+     * @param jobStatus Job that was updated.
+     */
+    public void update(JobStatus jobStatus) {
+        if (jobSet.get(jobStatus.getJobId()) == jobStatus) {
+            maybeWriteStatusToDiskAsync();
+        } else {
+            add(jobStatus);
+        }
+    }
+
     boolean containsJob(JobStatus jobStatus) {
         return jobSet.contains(jobStatus);
     }
@@ -122,6 +155,15 @@ public class JobStore {
         return jobSet.size();
     }
 
+    /**
+     * Returns the estimated size of the extras of all jobs, in bytes.
+     *
+     * @see JobInfo#getEstimatedExtrasSize()
+     */
+    public long getEstimatedExtrasSize() {
+        return jobSet.getEstimatedExtrasSize();
+    }
+
     /**
      * Remove the provided job. Will also delete the job if it was persisted.
      */
@@ -161,6 +203,11 @@ public class JobStore {
         new ReadJobMapFromDiskRunnable(jobSet).run();
     }
 
+    @VisibleForTesting
+    void writeJobMapToDisk(List<JobStatus> jobs) {
+        new WriteJobsMapToDiskRunnable().writeJobsMapImpl(jobs);
+    }
+
     /**
      * Runnable that writes {@link #jobSet} out to xml.
      */
@@ -175,6 +222,8 @@ public class JobStore {
         }
 
         private void writeJobsMapImpl(List<JobStatus> jobs) {
+            JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+            long startTime = metrics != null ? System.nanoTime() : 0L;
             try {
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 XmlSerializer out = new XmlUtils.FastXmlSerializer();
@@ -203,6 +252,10 @@ public class JobStore {
                 FileOutputStream fos = jobsFile.startWrite();
                 fos.write(baos.toByteArray());
                 jobsFile.finishWrite(fos);
+
+                if (metrics != null) {
+                    metrics.onJobsPersisted(jobs.size(), baos.size(), System.nanoTime() - startTime);
+                }
             } catch (IOException e) {
                 Log.w(LOG_TAG, "Error writing job data", e);
             } catch (XmlPullParserException e) {
@@ -260,16 +313,25 @@ public class JobStore {
                 out.startTag(null, XML_TAG_ONEOFF);
             }
 
-            if (jobStatus.hasDeadlineConstraint()) {
+            // Jobs are written without holding the lock, so read the runtimes again if they're updated meanwhile.
+            int version;
+            long earliestRunTimeElapsed, latestRunTimeElapsed;
+            do {
+                version = jobStatus.getVersion();
+                earliestRunTimeElapsed = jobStatus.getEarliestRunTimeElapsed();
+                latestRunTimeElapsed = jobStatus.getLatestRunTimeElapsed();
+            } while ((version & 1) != 0 || version != jobStatus.getVersion());
+
+            if (latestRunTimeElapsed != JobStatus.NO_LATEST_RUNTIME) {
                 // Wall clock deadline.
                 final long deadlineWallclock = System.currentTimeMillis() +
-                        (jobStatus.getLatestRunTimeElapsed() - SystemClock.elapsedRealtime());
+                        (latestRunTimeElapsed - SystemClock.elapsedRealtime());
                 out.attribute(null, "deadline", Long.toString(deadlineWallclock));
             }
-            if (jobStatus.hasTimingDelayConstraint()) {
+            if (earliestRunTimeElapsed != JobStatus.NO_EARLIEST_RUNTIME) {
                 // Wall clock delay.
                 final long delayWallclock = System.currentTimeMillis() +
-                        (jobStatus.getEarliestRunTimeElapsed() - SystemClock.elapsedRealtime());
+                        (earliestRunTimeElapsed - SystemClock.elapsedRealtime());
                 out.attribute(null, "delay", Long.toString(delayWallclock));
             }
 
@@ -713,6 +775,8 @@ public class JobStore {
 
     static class JobSet {
         final SparseArray<JobStatus> mJobs;
+        /** Kept up to date as jobs are added and removed, as their extras can't change. */
+        long mEstimatedExtrasSize;
 
         JobSet() {
             mJobs = new SparseArray<>();
@@ -742,7 +806,12 @@ public class JobStore {
         }
 
         void add(JobStatus job) {
+            JobStatus previous = mJobs.get(job.getJobId());
+            if (previous != null) {
+                mEstimatedExtrasSize -= previous.getJob().getEstimatedExtrasSize();
+            }
             mJobs.put(job.getJobId(), job);
+            mEstimatedExtrasSize += job.getJob().getEstimatedExtrasSize();
         }
 
         boolean contains(JobStatus job) {
@@ -753,21 +822,30 @@ public class JobStore {
             return mJobs.size();
         }
 
+        long getEstimatedExtrasSize() {
+            return mEstimatedExtrasSize;
+        }
+
         void remove(JobStatus job) {
-            mJobs.remove(job.getJobId());
+            JobStatus previous = mJobs.get(job.getJobId());
+            if (previous != null) {
+                mEstimatedExtrasSize -= previous.getJob().getEstimatedExtrasSize();
+                mJobs.remove(job.getJobId());
+            }
         }
 
         void clear() {
             mJobs.clear();
+            mEstimatedExtrasSize = 0L;
         }
     }
 
     /**
      * Same as android.support.v4.util.AtomicFile, with minor modifications and unused code removed.
      *
-     * Inlined here to avoid pulling the support library in.
+     * Inlined here to avoid pulling the support library in. Also used by {@link JobHistory}.
      */
-    private static class AtomicFile {
+    static class AtomicFile {
         private static final String LOG_TAG = "AtomicFile";
 
         private final File mBaseName;
@@ -777,7 +855,7 @@ public class JobStore {
          * Create a new AtomicFile for a file located at the given File path.
          * The secondary backup file will be the same file path with ".bak" appended.
          */
-        private AtomicFile(File baseName) {
+        AtomicFile(File baseName) {
             mBaseName = baseName;
             mBackupName = new File(baseName.getPath() + ".bak");
         }
@@ -792,7 +870,7 @@ public class JobStore {
          * new write operation will no longer be safe (or will be lost). You must do your own threading protection for
          * access to {@link AtomicFile}.
          */
-        private FileOutputStream startWrite() throws IOException {
+        FileOutputStream startWrite() throws IOException {
             // Rename the current file so it may be used as a backup during the next read
             if (mBaseName.exists()) {
                 if (!mBackupName.exists()) {
@@ -825,7 +903,7 @@ public class JobStore {
          * This will close, sync, and commit the new data. The next attempt to read the atomic file will return the
          * new file stream.
          */
-        private void finishWrite(FileOutputStream str) {
+        void finishWrite(FileOutputStream str) {
             if (str != null) {
                 sync(str);
                 try {
@@ -846,7 +924,7 @@ public class JobStore {
          * the state of a bad write and roll back, causing the new data currently being written to be dropped.
          * You must do your own threading protection for access to {@link AtomicFile}.
          */
-        private FileInputStream openRead() throws FileNotFoundException {
+        FileInputStream openRead() throws FileNotFoundException {
             if (mBackupName.exists()) {
                 mBaseName.delete();
                 mBackupName.renameTo(mBaseName);
@@ -0,0 +1,44 @@
+package com.doist.jobschedulercompat.job;
+
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Records jobs stopped for running longer than {@link JobSchedulerSettings#getMaxExecutionTime()}, per job id, for
+ * the lifetime of the process.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class JobTimeouts {
+    private static final String LOG_TAG = "JobTimeouts";
+
+    private static final SparseIntArray counts = new SparseIntArray();
+
+    private JobTimeouts() {
+    }
+
+    public static void record(int jobId) {
+        Log.w(LOG_TAG, "Job " + jobId + " exceeded the maximum execution time of "
+                + JobSchedulerSettings.getMaxExecutionTime() + "ms, stopping it");
+        synchronized (counts) {
+            counts.put(jobId, counts.get(jobId) + 1);
+        }
+    }
+
+    public static int getCount(int jobId) {
+        synchronized (counts) {
+            return counts.get(jobId);
+        }
+    }
+
+    @VisibleForTesting
+    public static void reset() {
+        synchronized (counts) {
+            counts.clear();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.doist.jobschedulercompat.scheduler;
+
+import com.doist.jobschedulercompat.JobService;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps the bindings to the user's {@link JobService}s, one per component, shared by all jobs targeting it.
+ *
+ * Jobs targeting a component that is already bound get its {@link JobService.Binder} right away, without binding again.
+ * The binding is kept for {@link #LINGER} after the last job using it is released, so that consecutive jobs on the same
+ * component also skip the rebind.
+ *
+ * Bindings use the application context, so that they outlive the job service that requested them. Callbacks always
+ * happen on the main thread, as with a regular {@link ServiceConnection}.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class JobServiceConnections {
+    private static final String LOG_TAG = "JobServiceConnections";
+
+    public static final long LINGER = TimeUnit.SECONDS.toMillis(10);
+
+    private static JobServiceConnections instance;
+
+    public static synchronized JobServiceConnections get(Context context) {
+        if (instance == null) {
+            instance = new JobServiceConnections(context);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.unbindAll();
+            instance = null;
+        }
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ComponentName, Binding> bindings = new HashMap<>();
+
+    private JobServiceConnections(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Uses the binding to {@code service} for a job, binding to it if needed. {@code callback} is notified once the
+     * binder is available, immediately if already connected and called from the main thread.
+     *
+     * @return whether the service can be bound. If not, {@code callback} is never notified.
+     */
+    public boolean connect(ComponentName service, Callback callback) {
+        Binding binding;
+        JobService.Binder binder;
+        synchronized (this) {
+            binding = bindings.get(service);
+            if (binding == null) {
+                binding = new Binding(service);
+                if (!bind(binding)) {
+                    return false;
+                }
+                bindings.put(service, binding);
+            } else {
+                mainHandler.removeCallbacks(binding.unbindRunnable);
+            }
+            binding.callbacks.add(callback);
+            binder = binding.binder;
+        }
+        if (binder != null) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                callback.onConnected(binder);
+            } else {
+                postConnected(binding, callback);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the binding to {@code service} for a job. {@code callback} won't be notified anymore.
+     *
+     * If it was the last job using it, the service is unbound after {@link #LINGER}.
+     */
+    public synchronized void disconnect(ComponentName service, Callback callback) {
+        Binding binding = bindings.get(service);
+        if (binding != null && binding.callbacks.remove(callback) && binding.callbacks.isEmpty()) {
+            mainHandler.postDelayed(binding.unbindRunnable, LINGER);
+        }
+    }
+
+    private boolean bind(Binding binding) {
+        Intent intent = new Intent();
+        intent.setComponent(binding.service);
+        if (context.bindService(intent, binding, Context.BIND_AUTO_CREATE)) {
+            return true;
+        } else {
+            unbind(binding);
+            return false;
+        }
+    }
+
+    private void unbind(Binding binding) {
+        try {
+            context.unbindService(binding);
+        } catch (IllegalArgumentException e) {
+            // Service not registered at this point. Drop it.
+        }
+    }
+
+    private synchronized void unbindAll() {
+        for (Binding binding : bindings.values()) {
+            mainHandler.removeCallbacks(binding.unbindRunnable);
+            unbind(binding);
+        }
+        bindings.clear();
+    }
+
+    private void postConnected(final Binding binding, final Callback callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                JobService.Binder binder;
+                synchronized (JobServiceConnections.this) {
+                    // Skip jobs released in the meantime.
+                    if (!binding.callbacks.contains(callback)) {
+                        return;
+                    }
+                    binder = binding.binder;
+                }
+                if (binder != null) {
+                    callback.onConnected(binder);
+                }
+            }
+        });
+    }
+
+    /**
+     * Notified of the state of the binding used by a job, on the main thread.
+     */
+    public interface Callback {
+        /** The user's service is connected, and the job can be started. */
+        void onConnected(JobService.Binder binder);
+
+        /** The user's service disconnected or is invalid, and the job can't continue. */
+        void onDisconnected();
+    }
+
+    private class Binding implements ServiceConnection {
+        private final ComponentName service;
+        private final List<Callback> callbacks = new ArrayList<>(1);
+        private final Runnable unbindRunnable = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (JobServiceConnections.this) {
+                    if (callbacks.isEmpty() && bindings.get(service) == Binding.this) {
+                        bindings.remove(service);
+                        unbind(Binding.this);
+                    }
+                }
+            }
+        };
+
+        private JobService.Binder binder;
+
+        private Binding(ComponentName service) {
+            this.service = service;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            List<Callback> connectedCallbacks;
+            JobService.Binder connectedBinder = null;
+            synchronized (JobServiceConnections.this) {
+                if (service instanceof JobService.Binder) {
+                    connectedBinder = (JobService.Binder) service;
+                } else {
+                    Log.w(LOG_TAG, "Unknown service connected: " + service);
+                    bindings.remove(this.service);
+                    unbind(this);
+                }
+                binder = connectedBinder;
+                connectedCallbacks = new ArrayList<>(callbacks);
+            }
+            for (Callback callback : connectedCallbacks) {
+                if (connectedBinder != null) {
+                    callback.onConnected(connectedBinder);
+                } else {
+                    callback.onDisconnected();
+                }
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // Should never happen as it's the same process.
+            List<Callback> disconnectedCallbacks;
+            synchronized (JobServiceConnections.this) {
+                binder = null;
+                disconnectedCallbacks = new ArrayList<>(callbacks);
+            }
+            for (Callback callback : disconnectedCallbacks) {
+                callback.onDisconnected();
+            }
+        }
+    }
+}
@@ -48,9 +48,10 @@ public abstract class Scheduler {
     }
 
     /**
-     * Signals that a job failed and is being rescheduled.
+     * Signals that a job failed and is being rescheduled. Its timing was updated in place, so state such as the
+     * content changes that triggered it is carried over to the next run.
      */
-    public void onJobRescheduled(JobStatus newJob, JobStatus failedJob) {
+    public void onJobRescheduled(JobStatus jobStatus) {
         // Implementations can override.
     }
 
@@ -1,67 +1,123 @@
 package com.doist.jobschedulercompat.scheduler.alarm;
 
+import com.doist.jobschedulercompat.JobExecution;
 import com.doist.jobschedulercompat.JobInfo;
 import com.doist.jobschedulercompat.JobParameters;
 import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.JobSchedulerSettings;
 import com.doist.jobschedulercompat.JobService;
+import com.doist.jobschedulercompat.job.JobHistory;
 import com.doist.jobschedulercompat.job.JobStatus;
-import com.doist.jobschedulercompat.util.DeviceUtils;
+import com.doist.jobschedulercompat.job.JobTimeouts;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
+import com.doist.jobschedulercompat.util.BackgroundThread;
+import com.doist.jobschedulercompat.util.NetworkState;
 
 import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
 
 /**
  * Job service for {@link AlarmScheduler}, the {@link AlarmManager}-based scheduler.
  *
  * This service runs whenever new jobs are scheduled or deleted, whenever constraints (eg. connectivity, charging)
  * might have changed, and whenever a previous job finished, as these can schedule new jobs.
+ *
+ * Only lifecycle callbacks run on the main thread. Evaluating constraints, accessing the store and binding to each job's
+ * service happens serially on {@link BackgroundThread}, which is also the only thread accessing {@link #connections}.
+ * The user's {@link JobService} is started and stopped on the main thread, as it would be by JobScheduler.
+ *
+ * Start commands received while a pass is still queued are coalesced into it, as each pass evaluates all jobs anyway.
+ *
+ * Jobs running for longer than {@link JobSchedulerSettings#getMaxExecutionTime()} are stopped, as with JobScheduler.
  */
 @RestrictTo(RestrictTo.Scope.LIBRARY)
 public class AlarmJobService extends Service implements JobService.Binder.Callback {
     private static final String LOG_TAG = "AlarmJobService";
 
     private static final String TAG_WAKE_LOCK_PROCESS = "process";
-    private static final String TAG_WAKE_LOCK_JOB = "job";
 
     private static final long TIMEOUT_WAKE_LOCK_PROCESS = TimeUnit.MINUTES.toMillis(1);
-    private static final long TIMEOUT_WAKE_LOCK_JOB = TimeUnit.MINUTES.toMillis(3); // Same as JobScheduler's.
+
+    private static final int NO_START_ID = -1;
 
     private static PowerManager.WakeLock wakeLockProcess;
 
+    /** Whether a start was requested and the pass processing it hasn't begun yet. */
+    private static final AtomicBoolean startPending = new AtomicBoolean();
+
     /**
      * Start {@link AlarmJobService} while holding a wake lock to process pending jobs.
+     *
+     * Requests made before the next pass begins are coalesced into it, as it evaluates all jobs anyway. Bursts of
+     * requests, such as scheduling jobs in a loop or constraints changing during a pass, result in a single pass.
      */
     static void start(Context context) {
-        if (wakeLockProcess == null) {
-            wakeLockProcess = getWakeLock(context, TAG_WAKE_LOCK_PROCESS);
+        synchronized (startPending) {
+            if (wakeLockProcess == null) {
+                wakeLockProcess = getWakeLock(context, TAG_WAKE_LOCK_PROCESS);
+                // Coalesced requests are processed in a single pass, which releases the wake lock once.
+                wakeLockProcess.setReferenceCounted(false);
+            }
+            wakeLockProcess.acquire(TIMEOUT_WAKE_LOCK_PROCESS);
+        }
+        if (startPending.compareAndSet(false, true)) {
+            try {
+                context.startService(new Intent(context, AlarmJobService.class));
+            } catch (RuntimeException e) {
+                startPending.set(false);
+                throw e;
+            }
         }
-        wakeLockProcess.acquire(TIMEOUT_WAKE_LOCK_PROCESS);
-        context.startService(new Intent(context, AlarmJobService.class));
+    }
+
+    @VisibleForTesting
+    static void resetStartPending() {
+        startPending.set(false);
     }
 
     private JobScheduler jobScheduler;
     private SparseArray<Connection> connections;
-    private PowerManager.WakeLock wakeLockJob;
+
+    private Handler handler;
+    private Handler mainHandler;
+
+    /** Latest start id processed, to stop the service with once no jobs are running. */
+    private int lastStartId = NO_START_ID;
+    /** Latest start id not yet processed, or {@link #NO_START_ID} if no pass is queued. */
+    private final AtomicInteger pendingStartId = new AtomicInteger(NO_START_ID);
+    private final Runnable processJobsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Requests from now on need another pass, as this one may have already evaluated their changes.
+            startPending.set(false);
+            processJobs(pendingStartId.getAndSet(NO_START_ID));
+        }
+    };
 
     @Nullable
     @Override
@@ -74,34 +130,66 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
         super.onCreate();
         jobScheduler = JobScheduler.get(this);
         connections = new SparseArray<>();
-        wakeLockJob = getWakeLock(this, TAG_WAKE_LOCK_JOB);
+        handler = new Handler(BackgroundThread.get().getLooper());
+        mainHandler = new Handler(Looper.getMainLooper());
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        // Only queue a pass if there isn't one already, which will now use the latest start id.
+        if (pendingStartId.getAndSet(startId) == NO_START_ID) {
+            handler.post(processJobsRunnable);
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // Only drop the queued pass, running jobs' timeouts and stop requests are left for them to complete.
+        handler.removeCallbacks(processJobsRunnable);
+        startPending.set(false);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        JobHistory.get(this).dump(writer);
+    }
+
+    /**
+     * Stops jobs that were cancelled or are no longer ready, and starts jobs that became ready.
+     *
+     * Runs on {@link BackgroundThread}.
+     */
+    private void processJobs(int startId) {
+        lastStartId = startId;
         try {
             // Stop jobs that have been cancelled.
             for (int i = connections.size() - 1; i >= 0; i--) {
                 Connection connection = connections.valueAt(i);
-                if (jobScheduler.getJob(connection.params.getJobId()) == null) {
-                    stopJob(connection, false);
+                if (!connection.stopping && jobScheduler.getJob(connection.params.getJobId()) == null) {
+                    stopJob(connection, JobExecution.STOP_REASON_CANCELLED, false);
                 }
             }
 
             // Start jobs that are ready, schedule jobs that are not.
             List<JobStatus> jobStatuses = jobScheduler.getJobsByScheduler(AlarmScheduler.TAG);
+            JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+            long startTime = metrics != null ? System.nanoTime() : 0L;
             updateConstraints(jobStatuses);
+            if (metrics != null) {
+                metrics.onConstraintsEvaluated(jobStatuses.size(), System.nanoTime() - startTime);
+            }
             for (JobStatus jobStatus : jobStatuses) {
                 Connection connection = connections.get(jobStatus.getJobId());
                 if (jobStatus.isReady()) {
                     if (connection == null) {
                         // Job is ready and not already running, bind to the service and start the job.
-                        startJob(jobStatus, startId);
+                        startJob(jobStatus);
                     }
-                } else if (connection != null) {
-                    // Job is running but not ready, unbind from the service and stop the job.
-                    boolean needsReschedule = connection.binder != null && connection.binder.stopJob(connection.params);
-                    stopJob(connection, needsReschedule);
+                } else if (connection != null && !connection.stopping) {
+                    // Job is running but not ready, stop the job and unbind from the service.
+                    requestStopJob(connection, JobExecution.STOP_REASON_STOPPED);
                 }
             }
 
@@ -112,12 +200,12 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
                 stopSelf(startId);
             }
 
-            // Each job holds its own wake lock while processing, release ours now.
-            if (wakeLockProcess != null && wakeLockProcess.isHeld()) {
+            // Each job holds its own wake lock while processing, release ours now unless another pass is queued.
+            if (!startPending.get() && pendingStartId.get() == NO_START_ID
+                    && wakeLockProcess != null && wakeLockProcess.isHeld()) {
                 wakeLockProcess.release();
             }
         }
-        return START_NOT_STICKY;
     }
 
     /**
@@ -126,40 +214,74 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
      * When constraints are not met, receivers and/or alarms are scheduled for when it's appropriate to run again.
      */
     private void updateConstraints(List<JobStatus> jobStatuses) {
+        // Track the battery while there are jobs depending on it, or stop tracking if there aren't.
+        boolean hasPowerConstraint = false;
+        for (JobStatus jobStatus : jobStatuses) {
+            hasPowerConstraint |= jobStatus.hasPowerConstraint();
+        }
+        BatteryTracker batteryTracker = BatteryTracker.get(this);
+        if (hasPowerConstraint) {
+            batteryTracker.startTracking();
+        } else {
+            batteryTracker.stopTracking();
+        }
+
         // Update charging constraint.
         boolean unsatisfiedChargingConstraint = false;
-        boolean charging = DeviceUtils.isCharging(this);
+        boolean charging = batteryTracker.isCharging();
         for (JobStatus jobStatus : jobStatuses) {
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, charging);
             unsatisfiedChargingConstraint |= jobStatus.hasChargingConstraint() && !charging;
         }
 
-        // Enable charging receiver if there are unmet constraints, or disable it if there aren't.
-        setComponentEnabled(this, AlarmReceiver.BatteryReceiver.class, unsatisfiedChargingConstraint);
-
         // Update battery not low constraint.
-        // ACTION_BATTERY_CHANGED cannot be received through a receiver declared in AndroidManifest.
-        // AlarmReceiver will be scheduled to run by AlarmManager at most 30 minutes from now.
         boolean unsatisfiedBatteryNotLowConstraint = false;
-        boolean batteryNotLow = DeviceUtils.isBatteryNotLow(this);
+        boolean batteryNotLow = batteryTracker.isBatteryNotLow();
         for (JobStatus jobStatus : jobStatuses) {
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_BATTERY_NOT_LOW, batteryNotLow);
             unsatisfiedBatteryNotLowConstraint |= jobStatus.hasBatteryNotLowConstraint() && !batteryNotLow;
         }
 
+        // Enable battery receiver if there are unmet constraints, or disable it if there aren't.
+        setComponentEnabled(
+                this, AlarmReceiver.BatteryReceiver.class,
+                unsatisfiedChargingConstraint || unsatisfiedBatteryNotLowConstraint);
+
         // Update idle constraint.
         // ACTION_SCREEN_OFF cannot be received through a receiver declared in AndroidManifest.
-        // AlarmReceiver will be scheduled to run by AlarmManager at most 15 minutes from now.
+        // IdleController tracks it while there are idle constraints, and the device becoming idle is scheduled below.
+        boolean hasIdleConstraint = false;
+        for (JobStatus jobStatus : jobStatuses) {
+            hasIdleConstraint |= jobStatus.hasIdleConstraint();
+        }
+        IdleController idleController = IdleController.get(this);
+        if (hasIdleConstraint) {
+            idleController.startTracking();
+        } else {
+            idleController.stopTracking();
+        }
         boolean unsatisfiedIdleConstraint = false;
-        boolean idle = DeviceUtils.isIdle(this);
+        boolean idle = idleController.isIdle();
         for (JobStatus jobStatus : jobStatuses) {
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_IDLE, idle);
             unsatisfiedIdleConstraint |= jobStatus.hasIdleConstraint() && !idle;
         }
 
+        // Track storage while there are jobs depending on it, or stop tracking if there aren't.
+        boolean hasStorageNotLowConstraint = false;
+        for (JobStatus jobStatus : jobStatuses) {
+            hasStorageNotLowConstraint |= jobStatus.hasStorageNotLowConstraint();
+        }
+        StorageTracker storageTracker = StorageTracker.get(this);
+        if (hasStorageNotLowConstraint) {
+            storageTracker.startTracking();
+        } else {
+            storageTracker.stopTracking();
+        }
+
         // Update storage not low constraint.
         boolean unsatisfiedStorageNowLowConstraint = false;
-        boolean storageNotLow = DeviceUtils.isStorageNotLow(this);
+        boolean storageNotLow = storageTracker.isStorageNotLow();
         for (JobStatus jobStatus : jobStatuses) {
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_STORAGE_NOT_LOW, storageNotLow);
             unsatisfiedStorageNowLowConstraint |= jobStatus.hasStorageNotLowConstraint() && !storageNotLow;
@@ -168,24 +290,42 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
         // Enable storage receiver if there are unmet constraints, or disable it if there aren't.
         setComponentEnabled(this, AlarmReceiver.StorageReceiver.class, unsatisfiedStorageNowLowConstraint);
 
+        // Track connectivity while there are jobs depending on it, or stop tracking if there aren't.
+        boolean hasConnectivityConstraint = false;
+        for (JobStatus jobStatus : jobStatuses) {
+            hasConnectivityConstraint |= jobStatus.hasConnectivityConstraint();
+        }
+        ConnectivityTracker connectivityTracker = ConnectivityTracker.get(this);
+        if (hasConnectivityConstraint) {
+            connectivityTracker.startTracking();
+        } else {
+            connectivityTracker.stopTracking();
+        }
+
         // Get connectivity constraints.
+        // Besides the network type, each job's network must match its required capabilities, and large transfers
+        // wait for an unmetered network until their deadline.
         boolean unsatisfiedConnectivityConstraint = false;
-        boolean connected = DeviceUtils.isConnected(this);
-        boolean unmetered = connected && DeviceUtils.isUnmetered(this);
-        boolean notRoaming = connected && DeviceUtils.isNotRoaming(this);
-        boolean metered = connected && DeviceUtils.isMetered(this);
+        NetworkState networkState = connectivityTracker.getState();
         for (JobStatus jobStatus : jobStatuses) {
+            boolean usable = networkState.satisfies(jobStatus.getJob());
+            boolean connected = usable && networkState.isConnected()
+                    && (networkState.isUnmetered() || !jobStatus.prefersUnmeteredConnectivity());
+            boolean unmetered = usable && networkState.isUnmetered();
+            boolean notRoaming = connected && networkState.isNotRoaming();
+            boolean metered = usable && networkState.isMetered();
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CONNECTIVITY, connected);
             unsatisfiedConnectivityConstraint |= jobStatus.needsAnyConnectivity() && !connected;
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_UNMETERED, unmetered);
             unsatisfiedConnectivityConstraint |= jobStatus.needsUnmeteredConnectivity() && !unmetered;
             jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_NOT_ROAMING, notRoaming);
             unsatisfiedConnectivityConstraint |= jobStatus.needsNonRoamingConnectivity() && !notRoaming;
-            jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_METERED, notRoaming);
+            jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_METERED, metered);
             unsatisfiedConnectivityConstraint |= jobStatus.needsMeteredConnectivity() && !metered;
         }
 
         // Enable connectivity receiver if there are unmet constraints, or disable it if there aren't.
+        // It's needed to start the process when it isn't running, as ConnectivityTracker only works while it is.
         setComponentEnabled(this, AlarmReceiver.ConnectivityReceiver.class, unsatisfiedConnectivityConstraint);
 
         // Get content constraints.
@@ -198,64 +338,48 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
         // Register / unregister content observers.
         startService(new Intent(this, ContentObserverService.class));
 
-        // Get timing constraints.
-        long nextExpiryTime = Long.MAX_VALUE;
-        long nextDelayTime = Long.MAX_VALUE;
+        // Get timing constraints, and the windows in which waking up would be useful for each job.
         long nowElapsed = SystemClock.elapsedRealtime();
+        WakeupStrategy wakeupStrategy = new WakeupStrategy(nowElapsed);
         for (JobStatus jobStatus : jobStatuses) {
-            if (jobStatus.hasDeadlineConstraint()) {
-                long jobDeadline = jobStatus.getLatestRunTimeElapsed();
-                if (jobDeadline <= nowElapsed) {
-                    jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_DEADLINE, true);
-                    continue; // Skip timing delay, job will run now.
-                } else if (nextExpiryTime > jobDeadline) {
-                    nextExpiryTime = jobDeadline;
-                }
+            if (jobStatus.hasDeadlineConstraint() && jobStatus.getLatestRunTimeElapsed() <= nowElapsed) {
+                jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_DEADLINE, true);
+                continue; // Skip timing delay, job will run now.
             }
-            if (jobStatus.hasTimingDelayConstraint()) {
-                long jobDelayTime = jobStatus.getEarliestRunTimeElapsed();
-                if (jobDelayTime <= nowElapsed) {
-                    jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_TIMING_DELAY, true);
-                } else if (nextDelayTime > jobDelayTime) {
-                    nextDelayTime = jobDelayTime;
-                }
+            if (jobStatus.hasTimingDelayConstraint() && jobStatus.getEarliestRunTimeElapsed() <= nowElapsed) {
+                jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_TIMING_DELAY, true);
             }
+            wakeupStrategy.addJob(jobStatus);
         }
 
-        // Schedule alarm to run at the earliest deadline, if any.
-        // In case of an unmet idle constraint, this deadline needs to be exact to attempt to wake the device up.
-        long triggerAtMillis = Math.min(nextExpiryTime, nextDelayTime);
+        // Re-evaluate when the device becomes idle if it remains inactive, allowing for the same slop as JobScheduler.
         if (unsatisfiedIdleConstraint) {
-            triggerAtMillis = Math.min(triggerAtMillis, TimeUnit.MINUTES.toMillis(15));
-        } else if (unsatisfiedBatteryNotLowConstraint) {
-            triggerAtMillis = Math.min(triggerAtMillis, TimeUnit.MINUTES.toMillis(30));
-        }
-        AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(this, 0, new Intent(this, AlarmReceiver.class), 0);
-        if (triggerAtMillis != Long.MAX_VALUE) {
-            if (unsatisfiedIdleConstraint && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, pendingIntent);
-            } else {
-                alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, pendingIntent);
-            }
-        } else {
-            alarmManager.cancel(pendingIntent);
+            long idleTimeElapsed = idleController.getIdleTimeElapsed();
+            wakeupStrategy.addWindow(idleTimeElapsed, idleTimeElapsed + IdleController.IDLE_WINDOW_SLOP);
         }
+
+        // Schedule alarms aligned to as many windows as possible, if any.
+        wakeupStrategy.schedule(this);
     }
 
     @Override
-    public void jobFinished(JobParameters params, boolean needsReschedule) {
-        Connection connection = connections.get(params.getJobId());
-        if (connection != null) {
-            stopJob(connection, needsReschedule);
-        }
+    public void jobFinished(final JobParameters params, final boolean needsReschedule) {
+        // There are no guarantees on which thread this is called from.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Connection connection = connections.get(params.getJobId());
+                if (connection != null) {
+                    stopJob(connection, JobExecution.STOP_REASON_FINISHED, needsReschedule);
+                }
+            }
+        });
     }
 
     /**
-     * Starts the user's {@link JobService} by binding to it.
+     * Starts the user's {@link JobService} through its shared binding, binding to it if needed.
      */
-    private void startJob(JobStatus jobStatus, int startId) {
-        wakeLockJob.acquire(TIMEOUT_WAKE_LOCK_JOB);
+    private void startJob(JobStatus jobStatus) {
         int jobId = jobStatus.getJobId();
         JobInfo job = jobStatus.getJob();
         JobParameters params = new JobParameters(
@@ -263,33 +387,59 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
                 jobStatus.changedUris != null ? jobStatus.changedUris.toArray(new Uri[0]) : null,
                 jobStatus.changedAuthorities != null ?
                 jobStatus.changedAuthorities.toArray(new String[0]) : null, jobStatus.isDeadlineSatisfied());
-        Connection connection = new Connection(jobId, startId, params);
-        Intent jobIntent = new Intent();
         ComponentName service = jobStatus.getServiceComponent();
-        jobIntent.setComponent(service);
-        if (bindService(jobIntent, connection, BIND_AUTO_CREATE)) {
-            connections.put(jobId, connection);
-        } else {
+        Connection connection = new Connection(jobId, service, params, JobHistory.start(jobStatus));
+        connection.wakeLock.acquire();
+        connections.put(jobId, connection);
+        handler.postDelayed(connection.timeout, JobSchedulerSettings.getMaxExecutionTime());
+        JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+        if (metrics != null) {
+            long readyTime = jobStatus.getReadyTimeElapsed();
+            if (readyTime != JobStatus.NO_READY_TIME) {
+                long readyDuration = Math.max(SystemClock.elapsedRealtime() - readyTime, 0L);
+                metrics.onJobStarted(jobId, jobStatus.getSchedulerTag(), readyDuration);
+            }
+        }
+        if (!JobServiceConnections.get(this).connect(service, connection)) {
             Log.w(LOG_TAG, "Unable to bind to service: " + service + ". Have you declared it in the manifest?");
-            stopJob(connection, true);
+            stopJob(connection, JobExecution.STOP_REASON_SERVICE_UNAVAILABLE, true);
         }
     }
 
     /**
-     * Stops the user's {@link JobService} by unbinding from it.
+     * Asks the user's {@link JobService} to stop on the main thread, and then stops the job with its result.
      */
-    private void stopJob(Connection connection, boolean needsReschedule) {
-        connections.remove(connection.jobId);
-        try {
-            unbindService(connection);
-        } catch (IllegalArgumentException e) {
-            // Service not registered at this point. Drop it.
+    private void requestStopJob(final Connection connection, final int stopReason) {
+        connection.stopping = true;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                JobService.Binder binder = connection.binder;
+                postStopJob(connection, stopReason, binder != null && binder.stopJob(connection.params));
+            }
+        });
+    }
+
+    /**
+     * Stops the user's {@link JobService} by releasing its binding, which is unbound once no other job uses it.
+     *
+     * Runs on {@link BackgroundThread}, and does nothing if the job was already stopped.
+     */
+    private void stopJob(Connection connection, int stopReason, boolean needsReschedule) {
+        if (connections.get(connection.jobId) != connection) {
+            return;
         }
+        JobHistory.get(this).record(connection.run, stopReason, needsReschedule);
+        connections.remove(connection.jobId);
+        handler.removeCallbacks(connection.timeout);
+        connection.stopped = true;
+        JobServiceConnections.get(this).disconnect(connection.service, connection);
         jobScheduler.onJobCompleted(connection.jobId, needsReschedule);
-        stopSelf(connection.startId);
-        if (wakeLockJob.isHeld()) {
-            wakeLockJob.release();
+        // Stopping with the latest start id while other jobs are running would destroy the service under them.
+        if (connections.size() == 0) {
+            stopSelf(lastStartId);
         }
+        connection.wakeLock.release();
     }
 
     private static PowerManager.WakeLock getWakeLock(Context context, String tag) {
@@ -309,41 +459,67 @@ public class AlarmJobService extends Service implements JobService.Binder.Callba
     }
 
     /**
-     * {@link ServiceConnection} to the user's {@link JobService} that starts jobs when connected.
+     * Posts {@link #stopJob(Connection, int, boolean)} to {@link BackgroundThread}.
      */
-    private class Connection implements ServiceConnection {
+    private void postStopJob(final Connection connection, final int stopReason, final boolean needsReschedule) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopJob(connection, stopReason, needsReschedule);
+            }
+        });
+    }
+
+    /**
+     * Job running in the user's {@link JobService}, started once its binding is connected.
+     *
+     * Connection callbacks happen on the main thread, everything else is posted to {@link BackgroundThread}.
+     */
+    private class Connection implements JobServiceConnections.Callback {
         private final int jobId;
-        private final int startId;
+        private final ComponentName service;
         private final JobParameters params;
+        private final JobWakeLock wakeLock;
+        private final JobHistory.Run run;
+
+        private volatile JobService.Binder binder;
+        private volatile boolean stopped;
+        private boolean stopping;
+
+        /** Asks the job to stop once it exceeds the maximum execution time. Runs on {@link BackgroundThread}. */
+        private final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (connections.get(jobId) == Connection.this && !stopping) {
+                    JobTimeouts.record(jobId);
+                    requestStopJob(Connection.this, JobExecution.STOP_REASON_TIMEOUT);
+                }
+            }
+        };
 
-        private JobService.Binder binder;
-
-        private Connection(int jobId, int startId, JobParameters params) {
+        private Connection(int jobId, ComponentName service, JobParameters params, JobHistory.Run run) {
             this.jobId = jobId;
-            this.startId = startId;
+            this.service = service;
             this.params = params;
+            this.run = run;
+            this.wakeLock = new JobWakeLock(AlarmJobService.this, jobId);
         }
 
         @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            if (!(service instanceof JobService.Binder)) {
-                Log.w(LOG_TAG, "Unknown service connected: " + service);
-                stopJob(this, false);
+        public void onConnected(JobService.Binder binder) {
+            if (stopped) {
                 return;
             }
-            binder = (JobService.Binder) service;
+            this.binder = binder;
             if (!binder.startJob(params, AlarmJobService.this)) {
-                stopJob(this, false);
+                postStopJob(this, JobExecution.STOP_REASON_FINISHED, false);
             }
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName name) {
-            // Should never happen as it's the same process.
+        public void onDisconnected() {
             binder = null;
-            if (connections.get(jobId) == this) {
-                stopJob(this, false);
-            }
+            postStopJob(this, JobExecution.STOP_REASON_SERVICE_UNAVAILABLE, false);
         }
     }
 }
@@ -26,6 +26,7 @@ public class AlarmReceiver extends BroadcastReceiver {
     public static class StorageReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
+            StorageTracker.get(context).invalidate();
             AlarmJobService.start(context);
         }
     }
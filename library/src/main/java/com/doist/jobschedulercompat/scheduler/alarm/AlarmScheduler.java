@@ -1,7 +1,6 @@
 package com.doist.jobschedulercompat.scheduler.alarm;
 
 import com.doist.jobschedulercompat.JobInfo;
-import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.scheduler.Scheduler;
 
 import android.app.AlarmManager;
@@ -47,12 +46,4 @@ public class AlarmScheduler extends Scheduler {
     public String getTag() {
         return TAG;
     }
-
-    @Override
-    public void onJobRescheduled(JobStatus newJob, JobStatus failedJob) {
-        if (failedJob.hasContentTriggerConstraint() && newJob.hasContentTriggerConstraint()) {
-            newJob.changedAuthorities = failedJob.changedAuthorities;
-            newJob.changedUris = failedJob.changedUris;
-        }
-    }
 }
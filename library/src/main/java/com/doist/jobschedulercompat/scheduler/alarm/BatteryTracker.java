@@ -0,0 +1,150 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+import com.doist.jobschedulercompat.util.BackgroundThread;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps track of the charging state and battery percentage for alarm-based jobs.
+ *
+ * The battery becomes low at or below {@link JobSchedulerSettings#getBatteryLowPercentage()} while not charging, and
+ * only becomes okay again at or above {@link JobSchedulerSettings#getBatteryOkayPercentage()} or once charging, as
+ * the system does for {@link Intent#ACTION_BATTERY_LOW} and {@link Intent#ACTION_BATTERY_OKAY}.
+ *
+ * {@link Intent#ACTION_BATTERY_CHANGED} cannot be received through a receiver declared in AndroidManifest, so it's
+ * received at runtime while alarm-based jobs have battery constraints. {@link AlarmJobService} is only started when
+ * the charging or low state changes. When the process isn't running, {@link AlarmReceiver.BatteryReceiver} covers
+ * power connection changes and the system's low battery broadcasts.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class BatteryTracker {
+    static final int PERCENTAGE_UNKNOWN = -1;
+
+    private static BatteryTracker instance;
+
+    public static synchronized BatteryTracker get(Context context) {
+        if (instance == null) {
+            instance = new BatteryTracker(context);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stopTracking();
+            instance = null;
+        }
+    }
+
+    private final Context context;
+
+    private BroadcastReceiver receiver;
+
+    private boolean initialized;
+    private boolean charging;
+    private int percentage = PERCENTAGE_UNKNOWN;
+    private boolean batteryNotLow = true;
+
+    private BatteryTracker(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public synchronized boolean isTracking() {
+        return receiver != null;
+    }
+
+    public synchronized void startTracking() {
+        if (isTracking()) {
+            return;
+        }
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                update(intent);
+            }
+        };
+        // ACTION_BATTERY_CHANGED is sticky, so the current state is returned right away.
+        Intent intent = context.registerReceiver(
+                receiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, BackgroundThread.getHandler());
+        update(intent);
+    }
+
+    public synchronized void stopTracking() {
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+    }
+
+    public synchronized boolean isCharging() {
+        refreshIfNotTracking();
+        return charging;
+    }
+
+    public synchronized boolean isBatteryNotLow() {
+        refreshIfNotTracking();
+        return batteryNotLow;
+    }
+
+    /**
+     * Returns the battery percentage, from 0 to 100, or {@link #PERCENTAGE_UNKNOWN}.
+     */
+    public synchronized int getBatteryPercentage() {
+        refreshIfNotTracking();
+        return percentage;
+    }
+
+    private void refreshIfNotTracking() {
+        if (!isTracking()) {
+            update(context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
+        }
+    }
+
+    /**
+     * Updates the state from an {@link Intent#ACTION_BATTERY_CHANGED} intent, applying hysteresis to the low state.
+     */
+    private synchronized void update(Intent intent) {
+        boolean newCharging = false;
+        int newPercentage = PERCENTAGE_UNKNOWN;
+        if (intent != null) {
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            newCharging = plugged == BatteryManager.BATTERY_PLUGGED_AC
+                    || plugged == BatteryManager.BATTERY_PLUGGED_USB
+                    || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                    && plugged == BatteryManager.BATTERY_PLUGGED_WIRELESS);
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            if (level >= 0 && scale > 0) {
+                newPercentage = Math.min(level * 100 / scale, 100);
+            }
+        }
+
+        boolean newBatteryNotLow;
+        if (newCharging || newPercentage == PERCENTAGE_UNKNOWN) {
+            newBatteryNotLow = true;
+        } else if (batteryNotLow) {
+            newBatteryNotLow = newPercentage > JobSchedulerSettings.getBatteryLowPercentage();
+        } else {
+            newBatteryNotLow = newPercentage >= JobSchedulerSettings.getBatteryOkayPercentage();
+        }
+
+        boolean changed = initialized && (newCharging != charging || newBatteryNotLow != batteryNotLow);
+        initialized = true;
+        charging = newCharging;
+        percentage = newPercentage;
+        batteryNotLow = newBatteryNotLow;
+        if (changed && isTracking()) {
+            AlarmJobService.start(context);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.util.BackgroundThread;
+import com.doist.jobschedulercompat.util.NetworkState;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps track of the state of the default network while alarm-based jobs have connectivity constraints.
+ *
+ * While tracking, the state is kept in memory and {@link AlarmJobService} reads it without any IPC. It's updated
+ * through {@link ConnectivityManager.NetworkCallback} on Lollipop and above, and through a runtime receiver for
+ * {@link ConnectivityManager#CONNECTIVITY_ACTION} below that. {@link AlarmJobService} is only started when a change
+ * is relevant to the constraints, as defined by {@link NetworkState#equals(Object)}.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class ConnectivityTracker {
+    private static ConnectivityTracker instance;
+
+    public static synchronized ConnectivityTracker get(Context context) {
+        if (instance == null) {
+            instance = new ConnectivityTracker(context);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stopTracking();
+            instance = null;
+        }
+    }
+
+    private final Context context;
+    private final ConnectivityManager manager;
+
+    // ConnectivityManager.NetworkCallback is only available on Lollipop and above.
+    private Object networkCallback;
+    private BroadcastReceiver receiver;
+
+    private volatile NetworkState state;
+
+    private ConnectivityTracker(Context context) {
+        this.context = context.getApplicationContext();
+        this.manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * Returns the current network state. This is only free of IPC while tracking.
+     */
+    @NonNull
+    public NetworkState getState() {
+        NetworkState state = this.state;
+        return state != null ? state : NetworkState.create(manager);
+    }
+
+    public synchronized boolean isTracking() {
+        return networkCallback != null || receiver != null;
+    }
+
+    public synchronized void startTracking() {
+        if (isTracking()) {
+            return;
+        }
+        state = NetworkState.create(manager);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            networkCallback = registerNetworkCallback();
+        } else {
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update();
+                }
+            };
+            context.registerReceiver(
+                    receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null,
+                    BackgroundThread.getHandler());
+        }
+    }
+
+    public synchronized void stopTracking() {
+        if (networkCallback != null) {
+            unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+        state = null;
+    }
+
+    /**
+     * Refreshes the state, starting {@link AlarmJobService} if it changed in a way relevant to any constraint.
+     */
+    private void update() {
+        NetworkState newState = NetworkState.create(manager);
+        NetworkState oldState;
+        synchronized (this) {
+            if (!isTracking()) {
+                return;
+            }
+            oldState = state;
+            state = newState;
+        }
+        if (oldState == null || !oldState.equals(newState)) {
+            AlarmJobService.start(context);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private Object registerNetworkCallback() {
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                update();
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                update();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                update();
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            registerDefaultNetworkCallback(callback);
+        } else {
+            NetworkRequest request =
+                    new NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build();
+            manager.registerNetworkCallback(request, callback);
+        }
+        return callback;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void registerDefaultNetworkCallback(ConnectivityManager.NetworkCallback callback) {
+        manager.registerDefaultNetworkCallback(callback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterNetworkCallback(Object callback) {
+        manager.unregisterNetworkCallback((ConnectivityManager.NetworkCallback) callback);
+    }
+}
@@ -3,6 +3,8 @@ package com.doist.jobschedulercompat.scheduler.alarm;
 import com.doist.jobschedulercompat.JobInfo;
 import com.doist.jobschedulercompat.JobScheduler;
 import com.doist.jobschedulercompat.job.JobStatus;
+import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.util.BackgroundThread;
 
 import android.app.AlarmManager;
 import android.app.Service;
@@ -12,7 +14,6 @@ import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.os.SystemClock;
 
 import java.util.HashMap;
@@ -27,7 +28,8 @@ import androidx.annotation.RestrictTo;
 /**
  * Content observing service for {@link AlarmScheduler}, the {@link AlarmManager}-based scheduler.
  *
- * This service runs whenever new jobs monitor content uris.
+ * This service runs whenever new jobs monitor content uris. Changes are delivered on {@link BackgroundThread}, so that
+ * bursts of notifications don't compete with the main thread.
  */
 @RestrictTo(RestrictTo.Scope.LIBRARY)
 public class ContentObserverService extends Service {
@@ -50,7 +52,7 @@ public class ContentObserverService extends Service {
 
         jobScheduler = JobScheduler.get(this);
 
-        handler = new Handler(Looper.getMainLooper());
+        handler = new Handler(BackgroundThread.get().getLooper());
     }
 
     @Override
@@ -64,7 +66,7 @@ public class ContentObserverService extends Service {
             }
         }
 
-        // Register new observers.
+        // Create new observers, tracking all jobs before registering as changes can be delivered right away.
         Map<JobInfo.TriggerContentUri, Observer> observers = new HashMap<>();
         List<JobStatus> jobStatuses = jobScheduler.getJobsByScheduler(AlarmScheduler.TAG);
         for (JobStatus jobStatus : jobStatuses) {
@@ -76,15 +78,20 @@ public class ContentObserverService extends Service {
                     if (observer == null) {
                         observer = new Observer(handler);
                         observers.put(uri, observer);
-                        resolver.registerContentObserver(
-                                uri.getUri(),
-                                (uri.getFlags() & JobInfo.TriggerContentUri.FLAG_NOTIFY_FOR_DESCENDANTS) != 0,
-                                observer);
                     }
                     observer.jobIds.add(jobStatus.getJobId());
                 }
             }
         }
+
+        // Register new observers.
+        for (Map.Entry<JobInfo.TriggerContentUri, Observer> entry : observers.entrySet()) {
+            JobInfo.TriggerContentUri uri = entry.getKey();
+            resolver.registerContentObserver(
+                    uri.getUri(),
+                    (uri.getFlags() & JobInfo.TriggerContentUri.FLAG_NOTIFY_FOR_DESCENDANTS) != 0,
+                    entry.getValue());
+        }
         this.observers = observers;
 
         if (observers.isEmpty()) {
@@ -114,30 +121,40 @@ public class ContentObserverService extends Service {
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
-            for (Integer jobId : jobIds) {
-                JobStatus existingJobStatus = jobScheduler.getJob(jobId);
-                final long elapsedNowMillis = SystemClock.elapsedRealtime();
-                long earliestRunTimeElapsedMillis = Math.max(
-                        existingJobStatus.getEarliestRunTimeElapsed(),
-                        elapsedNowMillis + existingJobStatus.getTriggerContentUpdateDelay());
-                long latestRunTimeElapsedMillis = Math.max(
-                        existingJobStatus.getLatestRunTimeElapsed(),
-                        elapsedNowMillis + existingJobStatus.getTriggerContentMaxDelay());
-                JobStatus jobStatus = new JobStatus(
-                        existingJobStatus.getJob(), AlarmScheduler.TAG, existingJobStatus.getNumFailures(),
-                        earliestRunTimeElapsedMillis, latestRunTimeElapsedMillis);
-                if (jobStatus.changedUris == null) {
-                    jobStatus.changedUris = new HashSet<>();
-                }
-                if (jobStatus.changedUris.size() < MAX_URIS_REPORTED) {
-                    jobStatus.changedUris.add(uri);
-                }
-                if (jobStatus.changedAuthorities == null) {
-                    jobStatus.changedAuthorities = new HashSet<>();
+            synchronized (JobStore.LOCK) {
+                for (Integer jobId : jobIds) {
+                    JobStatus jobStatus = jobScheduler.getJob(jobId);
+                    if (jobStatus == null) {
+                        // Job was removed while this change was being delivered.
+                        continue;
+                    }
+                    final long elapsedNowMillis = SystemClock.elapsedRealtime();
+                    long earliestRunTimeElapsedMillis = Math.max(
+                            jobStatus.getEarliestRunTimeElapsed(),
+                            elapsedNowMillis + jobStatus.getTriggerContentUpdateDelay());
+                    long latestRunTimeElapsedMillis = Math.max(
+                            jobStatus.getLatestRunTimeElapsed(),
+                            elapsedNowMillis + jobStatus.getTriggerContentMaxDelay());
+                    jobStatus.updateTiming(
+                            jobStatus.getNumFailures(), earliestRunTimeElapsedMillis, latestRunTimeElapsedMillis);
+                    // Copy the changes instead of adding to them, as they can be read without holding the lock.
+                    Set<Uri> changedUris = new HashSet<>();
+                    if (jobStatus.changedUris != null) {
+                        changedUris.addAll(jobStatus.changedUris);
+                    }
+                    if (changedUris.size() < MAX_URIS_REPORTED) {
+                        changedUris.add(uri);
+                    }
+                    Set<String> changedAuthorities = new HashSet<>();
+                    if (jobStatus.changedAuthorities != null) {
+                        changedAuthorities.addAll(jobStatus.changedAuthorities);
+                    }
+                    changedAuthorities.add(uri.getAuthority());
+                    jobStatus.changedUris = changedUris;
+                    jobStatus.changedAuthorities = changedAuthorities;
+                    jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CONTENT_TRIGGER, true);
+                    jobScheduler.updateJob(jobStatus);
                 }
-                jobStatus.changedAuthorities.add(uri.getAuthority());
-                jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CONTENT_TRIGGER, true);
-                jobScheduler.addJob(jobStatus);
             }
 
             AlarmJobService.start(ContentObserverService.this);
@@ -0,0 +1,200 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.util.BackgroundThread;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Decides whether the device is idle, similarly to the platform's IdleController.
+ *
+ * The device is active while the screen is on and it isn't in a desk dock. It's considered idle once it's been
+ * inactive for {@link #INACTIVITY_IDLE_THRESHOLD}, or while in Doze. Screen and dock changes are tracked through
+ * runtime receivers while alarm-based jobs have idle constraints, as they can't be received through the manifest.
+ * The last time the device was seen active is persisted, so that idleness survives the process being killed.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class IdleController {
+    /** Same as JobScheduler's default inactivity threshold. */
+    static final long INACTIVITY_IDLE_THRESHOLD = TimeUnit.MINUTES.toMillis(71);
+    /** Same as JobScheduler's default idle window slop. */
+    static final long IDLE_WINDOW_SLOP = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String PREFS_NAME = "com.doist.jobschedulercompat.idle";
+    private static final String PREF_LAST_ACTIVE = "last_active";
+
+    private static IdleController instance;
+
+    public static synchronized IdleController get(Context context) {
+        if (instance == null) {
+            instance = new IdleController(context);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stopTracking();
+            instance = null;
+        }
+    }
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final SharedPreferences prefs;
+
+    private BroadcastReceiver receiver;
+    private boolean screenOn;
+    private boolean deskDocked;
+
+    /** Wall clock time at which the device was last seen active, as elapsed realtime resets on boot. */
+    private long lastActiveTime;
+
+    private IdleController(Context context) {
+        this.context = context.getApplicationContext();
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.lastActiveTime = prefs.getLong(PREF_LAST_ACTIVE, 0L);
+    }
+
+    public synchronized boolean isTracking() {
+        return receiver != null;
+    }
+
+    public synchronized void startTracking() {
+        if (isTracking()) {
+            return;
+        }
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onStateChanged(intent);
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            filter.addAction(Intent.ACTION_DREAMING_STARTED);
+            filter.addAction(Intent.ACTION_DREAMING_STOPPED);
+        }
+        filter.addAction(Intent.ACTION_DOCK_EVENT);
+        // ACTION_DOCK_EVENT is sticky, so the current dock state is returned right away.
+        Intent dockIntent = context.registerReceiver(receiver, filter, null, BackgroundThread.getHandler());
+        screenOn = isScreenOn();
+        deskDocked = isDeskDocked(dockIntent);
+        if (isActive()) {
+            markActive(System.currentTimeMillis());
+        }
+    }
+
+    public synchronized void stopTracking() {
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+    }
+
+    /**
+     * Returns whether the device is idle. Below Marshmallow, this doesn't require any IPC while tracking.
+     */
+    public synchronized boolean isIdle() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && isDeviceIdleMode()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (isActive()) {
+            markActive(now);
+            return false;
+        }
+        return now - lastActiveTime >= INACTIVITY_IDLE_THRESHOLD;
+    }
+
+    /**
+     * Returns the elapsed realtime at which the device becomes idle if it remains inactive.
+     */
+    public synchronized long getIdleTimeElapsed() {
+        long now = System.currentTimeMillis();
+        long inactiveTime = isActive() ? 0 : Math.max(now - lastActiveTime, 0);
+        return SystemClock.elapsedRealtime() + Math.max(INACTIVITY_IDLE_THRESHOLD - inactiveTime, 0);
+    }
+
+    @VisibleForTesting
+    public synchronized void setLastActiveTime(long lastActiveTime) {
+        this.lastActiveTime = lastActiveTime;
+        prefs.edit().putLong(PREF_LAST_ACTIVE, lastActiveTime).apply();
+    }
+
+    private synchronized void onStateChanged(Intent intent) {
+        if (!isTracking()) {
+            return;
+        }
+        boolean wasActive = isActive();
+        String action = intent.getAction();
+        if (Intent.ACTION_SCREEN_ON.equals(action) || Intent.ACTION_DREAMING_STOPPED.equals(action)) {
+            screenOn = true;
+        } else if (Intent.ACTION_SCREEN_OFF.equals(action) || Intent.ACTION_DREAMING_STARTED.equals(action)) {
+            screenOn = false;
+        } else if (Intent.ACTION_DOCK_EVENT.equals(action)) {
+            deskDocked = isDeskDocked(intent);
+        }
+        boolean active = isActive();
+        if (wasActive != active) {
+            // Either way, the device was active until now. Re-evaluate jobs to stop or schedule idle ones.
+            setLastActiveTime(System.currentTimeMillis());
+            AlarmJobService.start(context);
+        }
+    }
+
+    private boolean isActive() {
+        return isTracking() ? screenOn && !deskDocked : isScreenOn();
+    }
+
+    /**
+     * Records the device as active, persisting it if the last persisted time is stale enough to matter.
+     */
+    private void markActive(long now) {
+        if (now - lastActiveTime >= IDLE_WINDOW_SLOP) {
+            setLastActiveTime(now);
+        } else {
+            lastActiveTime = now;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isScreenOn() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return powerManager.isInteractive();
+        } else {
+            return powerManager.isScreenOn();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private boolean isDeviceIdleMode() {
+        return powerManager.isDeviceIdleMode();
+    }
+
+    private static boolean isDeskDocked(Intent intent) {
+        if (intent == null) {
+            return false;
+        }
+        int dockState = intent.getIntExtra(Intent.EXTRA_DOCK_STATE, Intent.EXTRA_DOCK_STATE_UNDOCKED);
+        return dockState == Intent.EXTRA_DOCK_STATE_DESK
+                || dockState == Intent.EXTRA_DOCK_STATE_LE_DESK
+                || dockState == Intent.EXTRA_DOCK_STATE_HE_DESK;
+    }
+}
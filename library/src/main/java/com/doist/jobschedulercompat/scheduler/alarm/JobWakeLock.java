@@ -0,0 +1,102 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Wake lock held by {@link AlarmJobService} while running a single job, so that concurrent jobs don't release each
+ * other's wake lock.
+ *
+ * The timeout is derived from {@link JobSchedulerSettings#getMaxExecutionTime()}, and the time each job held its wake
+ * lock is accumulated per job id for the lifetime of the process.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class JobWakeLock {
+    /** Leeway after the maximum execution time, for the job to stop. */
+    static final long TIMEOUT_SLOP = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String TAG_PREFIX = "jsc:job:";
+
+    private static final long NOT_HELD = -1;
+
+    private static final SparseArray<Long> holdTimes = new SparseArray<>();
+
+    /**
+     * Returns the total time, in milliseconds, that wake locks were held for the job with {@code jobId}, excluding
+     * the current hold, if any.
+     */
+    public static long getHoldTime(int jobId) {
+        synchronized (holdTimes) {
+            Long holdTime = holdTimes.get(jobId);
+            return holdTime != null ? holdTime : 0L;
+        }
+    }
+
+    @VisibleForTesting
+    static void resetHoldTimes() {
+        synchronized (holdTimes) {
+            holdTimes.clear();
+        }
+    }
+
+    private final int jobId;
+    private final PowerManager.WakeLock wakeLock;
+
+    private long timeout;
+    private long acquiredAtElapsed = NOT_HELD;
+
+    JobWakeLock(Context context, int jobId) {
+        this.jobId = jobId;
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG_PREFIX + jobId);
+    }
+
+    synchronized boolean isHeld() {
+        return acquiredAtElapsed != NOT_HELD && wakeLock.isHeld();
+    }
+
+    /**
+     * Acquires the wake lock, if not already acquired.
+     */
+    synchronized void acquire() {
+        if (acquiredAtElapsed != NOT_HELD) {
+            return;
+        }
+        timeout = JobSchedulerSettings.getMaxExecutionTime() + TIMEOUT_SLOP;
+        wakeLock.acquire(timeout);
+        acquiredAtElapsed = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Releases the wake lock, if acquired, and accounts for the time it was held, up to its timeout.
+     */
+    synchronized void release() {
+        if (acquiredAtElapsed == NOT_HELD) {
+            return;
+        }
+        long heldTime = Math.min(SystemClock.elapsedRealtime() - acquiredAtElapsed, timeout);
+        acquiredAtElapsed = NOT_HELD;
+        // The wake lock is no longer held if its timeout expired.
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        synchronized (holdTimes) {
+            holdTimes.put(jobId, getHoldTime(jobId) + heldTime);
+        }
+        JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+        if (metrics != null) {
+            metrics.onWakeLockReleased(jobId, heldTime);
+        }
+    }
+}
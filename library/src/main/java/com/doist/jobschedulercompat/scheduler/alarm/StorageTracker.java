@@ -0,0 +1,165 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+import com.doist.jobschedulercompat.util.BackgroundThread;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.StatFs;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps track of the free space in the app's files directory for alarm-based jobs, using {@link StatFs}.
+ *
+ * Storage is low below the lowest of {@link JobSchedulerSettings#getStorageLowPercentage()} of the total space and
+ * {@link JobSchedulerSettings#getStorageLowMaxBytes()}, similarly to the system's storage monitor. Samples are cached
+ * for {@link #SAMPLE_INTERVAL}. While alarm-based jobs have storage constraints, free space is sampled on that interval
+ * and {@link AlarmJobService} is only started when storage goes from low to not low or vice-versa.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class StorageTracker {
+    /** Same as the system's storage monitor. */
+    static final long SAMPLE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long NEVER = -1;
+
+    private static StorageTracker instance;
+
+    public static synchronized StorageTracker get(Context context) {
+        if (instance == null) {
+            instance = new StorageTracker(context);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stopTracking();
+            instance = null;
+        }
+    }
+
+    private final Context context;
+    private final File dir;
+    private final Handler handler;
+    private final Runnable sampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sample();
+            handler.postDelayed(this, SAMPLE_INTERVAL);
+        }
+    };
+
+    private boolean tracking;
+
+    private long sampledAtElapsed = NEVER;
+    private long availableBytes;
+    private boolean storageNotLow = true;
+
+    private StorageTracker(Context context) {
+        this.context = context.getApplicationContext();
+        this.dir = context.getFilesDir();
+        this.handler = BackgroundThread.getHandler();
+    }
+
+    public synchronized boolean isTracking() {
+        return tracking;
+    }
+
+    public synchronized void startTracking() {
+        if (tracking) {
+            return;
+        }
+        tracking = true;
+        handler.postDelayed(sampleRunnable, SAMPLE_INTERVAL);
+    }
+
+    public synchronized void stopTracking() {
+        tracking = false;
+        handler.removeCallbacks(sampleRunnable);
+    }
+
+    public synchronized boolean isStorageNotLow() {
+        sampleIfStale();
+        return storageNotLow;
+    }
+
+    public synchronized long getAvailableBytes() {
+        sampleIfStale();
+        return availableBytes;
+    }
+
+    /**
+     * Discards the cached sample, eg. after the system notified storage changes.
+     */
+    public synchronized void invalidate() {
+        sampledAtElapsed = NEVER;
+    }
+
+    private void sampleIfStale() {
+        if (sampledAtElapsed == NEVER || SystemClock.elapsedRealtime() - sampledAtElapsed >= SAMPLE_INTERVAL) {
+            sample();
+        }
+    }
+
+    private synchronized void sample() {
+        long newAvailableBytes;
+        long newTotalBytes;
+        try {
+            StatFs statFs = new StatFs(dir.getPath());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                newAvailableBytes = getAvailableBytes(statFs);
+                newTotalBytes = getTotalBytes(statFs);
+            } else {
+                newAvailableBytes = getAvailableBytesLegacy(statFs);
+                newTotalBytes = getTotalBytesLegacy(statFs);
+            }
+        } catch (IllegalArgumentException e) {
+            // Unable to stat the directory. Keep the previous sample.
+            return;
+        }
+
+        long lowBytes = Math.min(
+                newTotalBytes * JobSchedulerSettings.getStorageLowPercentage() / 100,
+                JobSchedulerSettings.getStorageLowMaxBytes());
+        // Unknown sizes are never low.
+        boolean newStorageNotLow = newTotalBytes <= 0 || newAvailableBytes >= lowBytes;
+
+        boolean changed = sampledAtElapsed != NEVER && newStorageNotLow != storageNotLow;
+        sampledAtElapsed = SystemClock.elapsedRealtime();
+        availableBytes = newAvailableBytes;
+        storageNotLow = newStorageNotLow;
+        if (changed && tracking) {
+            AlarmJobService.start(context);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static long getAvailableBytes(StatFs statFs) {
+        return statFs.getAvailableBytes();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static long getTotalBytes(StatFs statFs) {
+        return statFs.getTotalBytes();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long getAvailableBytesLegacy(StatFs statFs) {
+        return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long getTotalBytesLegacy(StatFs statFs) {
+        return (long) statFs.getBlockCount() * statFs.getBlockSize();
+    }
+}
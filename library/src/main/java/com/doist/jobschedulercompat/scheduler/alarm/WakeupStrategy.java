@@ -0,0 +1,216 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.job.JobStatus;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+/**
+ * Decides when and how {@link AlarmJobService} wakes the device up next.
+ *
+ * Each pending job contributes a window, from the moment waking up becomes useful (its earliest runtime) to the
+ * latest moment it should happen (its latest runtime). Instead of waking up for the earliest of all trigger times,
+ * wakeups are planned to hit every window with as few of them as possible (see {@link #plan()}), so that a single
+ * wakeup runs as many jobs as possible. The difference between both is tracked in {@link #getWakeupsSaved()}, and
+ * reported through {@link JobSchedulerMetrics#onWakeupsPlanned(int, int)}.
+ *
+ * The window is set with {@link AlarmManager#setWindow(int, long, long, PendingIntent)} where available, allowing
+ * {@link AlarmManager} to batch it with other apps' alarms. As these are deferred in Doze, the earliest deadline is
+ * also backed by {@link AlarmManager#setAndAllowWhileIdle(int, long, PendingIntent)} on Marshmallow and above.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class WakeupStrategy {
+    private static final int REQUEST_CODE_WINDOW = 0;
+    private static final int REQUEST_CODE_DEADLINE = 1;
+
+    /** Jobs without a deadline can run late, by this fraction of their delay. Similar to AlarmManager's fuzz. */
+    private static final int NO_DEADLINE_FLEX_DIVISOR = 4;
+    private static final long MIN_NO_DEADLINE_FLEX = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_NO_DEADLINE_FLEX = TimeUnit.HOURS.toMillis(1);
+
+    private static final Comparator<Window> END_COMPARATOR = new Comparator<Window>() {
+        @Override
+        public int compare(Window w1, Window w2) {
+            return w1.end < w2.end ? -1 : (w1.end == w2.end ? 0 : 1);
+        }
+    };
+
+    private final long nowElapsed;
+    private final List<Window> windows = new ArrayList<>();
+    private List<Window> plan;
+
+    public WakeupStrategy(long nowElapsed) {
+        this.nowElapsed = nowElapsed;
+    }
+
+    /**
+     * Adds the window in which waking up is useful for this job, if any.
+     *
+     * Jobs still waiting for their delay are useful to wake up for between their earliest and latest runtime.
+     * Jobs only waiting for other constraints are useful to wake up for at their deadline, when they run regardless.
+     */
+    public void addJob(JobStatus jobStatus) {
+        long earliest = jobStatus.getEarliestRunTimeElapsed();
+        long latest = jobStatus.getLatestRunTimeElapsed();
+        boolean pendingDelay = jobStatus.hasTimingDelayConstraint() && earliest > nowElapsed;
+        boolean pendingDeadline = jobStatus.hasDeadlineConstraint() && latest > nowElapsed;
+        if (pendingDelay) {
+            if (pendingDeadline) {
+                addWindow(new Window(earliest, Math.max(earliest, latest), true));
+            } else {
+                long flex = (earliest - nowElapsed) / NO_DEADLINE_FLEX_DIVISOR;
+                flex = Math.min(Math.max(flex, MIN_NO_DEADLINE_FLEX), MAX_NO_DEADLINE_FLEX);
+                addWindow(new Window(earliest, earliest + flex, false));
+            }
+        } else if (pendingDeadline) {
+            addWindow(new Window(latest, latest, true));
+        }
+    }
+
+    /**
+     * Adds a window for re-evaluating constraints that are expected to change at {@code startElapsed}, but not
+     * notified when they do, at most {@code endElapsed}.
+     */
+    public void addWindow(long startElapsed, long endElapsed) {
+        addWindow(new Window(Math.max(startElapsed, nowElapsed), Math.max(endElapsed, nowElapsed), false));
+    }
+
+    private void addWindow(Window window) {
+        windows.add(window);
+        plan = null;
+    }
+
+    /**
+     * Returns the wakeups needed to hit every window, in chronological order.
+     *
+     * This is the interval stabbing problem, solved greedily: windows are sorted by end, and the first window not yet
+     * hit gets a wakeup at its end. Every window starting before that also overlaps it, and is hit by the same wakeup.
+     * Waking up at the end of each group yields the minimum number of wakeups. Each returned window spans from the
+     * latest start to the earliest end of its group, so waking up anywhere within it still hits the whole group.
+     */
+    public List<Window> plan() {
+        if (plan == null) {
+            List<Window> sorted = new ArrayList<>(windows);
+            Collections.sort(sorted, END_COMPARATOR);
+            List<Window> wakeups = new ArrayList<>();
+            int i = 0;
+            while (i < sorted.size()) {
+                Window urgent = sorted.get(i);
+                long start = urgent.start;
+                boolean deadline = urgent.deadline;
+                for (i++; i < sorted.size() && sorted.get(i).start <= urgent.end; i++) {
+                    Window window = sorted.get(i);
+                    start = Math.max(start, window.start);
+                    deadline |= window.deadline && window.end == urgent.end;
+                }
+                wakeups.add(new Window(start, urgent.end, deadline));
+            }
+            plan = wakeups;
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the number of wakeups saved by {@link #plan()}, compared to waking up once per window.
+     */
+    public int getWakeupsSaved() {
+        return windows.size() - plan().size();
+    }
+
+    /**
+     * Returns the next wakeup window, or {@code null} if there's no need to wake up.
+     */
+    @Nullable
+    public Window getNextWakeup() {
+        List<Window> plan = plan();
+        return plan.isEmpty() ? null : plan.get(0);
+    }
+
+    /**
+     * Returns the earliest deadline among all windows, or {@link JobStatus#NO_LATEST_RUNTIME} if there's none.
+     */
+    public long getNextDeadline() {
+        long deadline = JobStatus.NO_LATEST_RUNTIME;
+        for (Window window : windows) {
+            if (window.deadline && window.end < deadline) {
+                deadline = window.end;
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Sets or cancels the alarms that start {@link AlarmReceiver}, based on the current windows.
+     */
+    public void schedule(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, AlarmReceiver.class);
+        PendingIntent windowOperation = PendingIntent.getBroadcast(context, REQUEST_CODE_WINDOW, intent, 0);
+        PendingIntent deadlineOperation = PendingIntent.getBroadcast(context, REQUEST_CODE_DEADLINE, intent, 0);
+
+        Window wakeup = getNextWakeup();
+        if (wakeup != null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                setWindow(alarmManager, wakeup, windowOperation);
+            } else {
+                alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, wakeup.start, windowOperation);
+            }
+        } else {
+            alarmManager.cancel(windowOperation);
+        }
+
+        JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+        if (metrics != null) {
+            metrics.onWakeupsPlanned(windows.size(), plan().size());
+        }
+
+        long deadline = getNextDeadline();
+        if (deadline != JobStatus.NO_LATEST_RUNTIME && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            setAndAllowWhileIdle(alarmManager, deadline, deadlineOperation);
+        } else {
+            alarmManager.cancel(deadlineOperation);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void setWindow(AlarmManager alarmManager, Window window, PendingIntent operation) {
+        alarmManager.setWindow(
+                AlarmManager.ELAPSED_REALTIME_WAKEUP, window.start, window.end - window.start, operation);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static void setAndAllowWhileIdle(AlarmManager alarmManager, long triggerAt, PendingIntent operation) {
+        alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, operation);
+    }
+
+    /**
+     * Time window, in elapsed realtime, during which waking up is useful.
+     */
+    public static class Window {
+        public final long start;
+        public final long end;
+        /** Whether {@link #end} is a job's deadline, as opposed to a soft limit. */
+        public final boolean deadline;
+
+        Window(long start, long end, boolean deadline) {
+            this.start = start;
+            this.end = end;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -5,19 +5,26 @@ import com.google.android.gms.gcm.GcmTaskService;
 import com.google.android.gms.gcm.Task;
 import com.google.android.gms.gcm.TaskParams;
 
+import com.doist.jobschedulercompat.JobExecution;
 import com.doist.jobschedulercompat.JobInfo;
 import com.doist.jobschedulercompat.JobParameters;
 import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.JobSchedulerSettings;
 import com.doist.jobschedulercompat.JobService;
 import com.doist.jobschedulercompat.PersistableBundle;
+import com.doist.jobschedulercompat.job.JobHistory;
 import com.doist.jobschedulercompat.job.JobStatus;
+import com.doist.jobschedulercompat.job.JobTimeouts;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
+import com.doist.jobschedulercompat.util.NetworkState;
 
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Intent;
-import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
@@ -25,6 +32,9 @@ import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 
@@ -33,6 +43,8 @@ import androidx.annotation.RestrictTo;
  *
  * This service runs whenever {@link GcmNetworkManager} starts it based on the current jobs and constraints.
  * It is responsible for running jobs ({@link #ACTION_EXECUTE}) and reinitializing them ({@link #ACTION_INITIALIZE}).
+ *
+ * Jobs running for longer than {@link JobSchedulerSettings#getMaxExecutionTime()} are stopped, as with JobScheduler.
  */
 @RestrictTo(RestrictTo.Scope.LIBRARY)
 public class GcmJobService extends Service implements JobService.Binder.Callback {
@@ -52,6 +64,9 @@ public class GcmJobService extends Service implements JobService.Binder.Callback
 
     private JobScheduler jobScheduler;
     private final SparseArray<Connection> connections = new SparseArray<>();
+    private final Handler handler = new Handler();
+    /** Latest start id received, to stop the service with once no jobs are running. */
+    private int lastStartId;
 
     @Nullable
     @Override
@@ -67,16 +82,17 @@ public class GcmJobService extends Service implements JobService.Binder.Callback
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
         if (intent != null) {
             try {
                 String action = intent.getAction();
                 if (ACTION_INITIALIZE.equals(action)) {
                     // Schedule all existing jobs per GcmNetworkManager's request.
                     for (JobInfo job : jobScheduler.getAllPendingJobs()) {
-                        jobScheduler.schedule(job);
+                        jobScheduler.reschedule(job);
                     }
                 } else if (ACTION_EXECUTE.equals(action)) {
-                    startJob(intent, startId);
+                    startJob(intent);
                 }
             } finally {
                 if (connections.size() == 0) {
@@ -88,22 +104,41 @@ public class GcmJobService extends Service implements JobService.Binder.Callback
     }
 
     @Override
-    public void jobFinished(JobParameters params, boolean needsReschedule) {
-        Connection connection = connections.get(params.getJobId());
-        if (connection != null) {
-            stopJob(connection, !needsReschedule, needsReschedule);
-        }
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        JobHistory.get(this).dump(writer);
+    }
+
+    @Override
+    public void jobFinished(final JobParameters params, final boolean needsReschedule) {
+        // There are no guarantees on which thread this is called from.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Connection connection = connections.get(params.getJobId());
+                if (connection != null) {
+                    stopJob(connection, JobExecution.STOP_REASON_FINISHED, !needsReschedule, needsReschedule);
+                }
+            }
+        });
     }
 
     /**
      * Starts the user's {@link JobService} by binding to it.
      *
-     * Given {@link GcmNetworkManager}'s lack of support for roaming constraints and {@link Task}'s lack of information
-     * on whether the deadline expired or not, both of these scenarios are handled manually.
+     * Given {@link GcmNetworkManager}'s lack of support for roaming, metered and capability constraints and
+     * {@link Task}'s lack of information on whether the deadline expired or not, these scenarios are handled manually.
+     * Jobs whose network doesn't match are retried by {@link GcmNetworkManager}, unless their deadline expired. This
+     * isn't a failure, so their timing and failure count are kept.
      *
      * @param intent {@link GcmNetworkManager}'s intent, whose extras contain the parameters and callback.
      */
-    private void startJob(Intent intent, int startId) {
+    private void startJob(Intent intent) {
         GcmIntentParser parser;
         try {
             parser = new GcmIntentParser(intent.getExtras());
@@ -127,38 +162,69 @@ public class GcmJobService extends Service implements JobService.Binder.Callback
         JobStatus jobStatus = jobScheduler.getJob(jobId);
         if (jobStatus != null) {
             JobInfo job = jobStatus.getJob();
+            boolean overrideDeadlineExpired = isOverrideDeadlineExpired(jobStatus);
+            if (!overrideDeadlineExpired && !isNetworkSatisfied(jobStatus)) {
+                sendResult(callback, RESULT_RESCHEDULE);
+                return;
+            }
             JobParameters params = new JobParameters(
                     jobId, new PersistableBundle(extras), job.getTransientExtras(), null,
-                    triggeredUris, triggeredAuthorities, isOverrideDeadlineExpired(jobStatus));
-            Connection connection = new Connection(jobId, startId, params, callback);
-            Intent jobIntent = new Intent();
-            ComponentName service = jobStatus.getServiceComponent();
-            jobIntent.setComponent(service);
-            if (bindService(jobIntent, connection, BIND_AUTO_CREATE)) {
-                connections.put(jobId, connection);
-            } else {
-                Log.w(LOG_TAG, "Unable to bind to service: " + service + ". Have you declared it in the manifest?");
-                stopJob(connection, false, true);
+                    triggeredUris, triggeredAuthorities, overrideDeadlineExpired);
+            Connection connection = new Connection(
+                    jobId, jobStatus.getServiceComponent(), params, callback, JobHistory.start(jobStatus));
+            connections.put(jobId, connection);
+            handler.postDelayed(connection.timeout, JobSchedulerSettings.getMaxExecutionTime());
+            JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+            if (metrics != null) {
+                long readyTime = jobStatus.getReadyTimeElapsed();
+                if (readyTime != JobStatus.NO_READY_TIME) {
+                    long readyDuration = Math.max(SystemClock.elapsedRealtime() - readyTime, 0L);
+                    metrics.onJobStarted(jobId, jobStatus.getSchedulerTag(), readyDuration);
+                }
+            }
+            if (!JobServiceConnections.get(this).connect(connection.service, connection)) {
+                Log.w(LOG_TAG, "Unable to bind to service: " + connection.service
+                        + ". Have you declared it in the manifest?");
+                stopJob(connection, JobExecution.STOP_REASON_SERVICE_UNAVAILABLE, false, true);
             }
         }
     }
 
     /**
-     * Stops the user's {@link android.app.job.JobService} by unbinding from it and passing the result to the callback.
+     * Stops the user's {@link JobService} by releasing its binding and passing the result to the callback.
+     *
+     * Runs on the main thread, and does nothing if the job was already stopped.
      */
-    private void stopJob(Connection connection, boolean success, boolean needsReschedule) {
-        connections.remove(connection.jobId);
-        try {
-            unbindService(connection);
-        } catch (IllegalArgumentException e) {
-            // Service not registered at this point. Drop it.
+    private void stopJob(Connection connection, int stopReason, boolean success, boolean needsReschedule) {
+        if (connection.stopped) {
+            return;
+        }
+        connection.stopped = true;
+        JobHistory.get(this).record(connection.run, stopReason, needsReschedule);
+        if (connections.get(connection.jobId) == connection) {
+            connections.remove(connection.jobId);
+        }
+        handler.removeCallbacks(connection.timeout);
+        JobServiceConnections.get(this).disconnect(connection.service, connection);
+        int result = success ? RESULT_SUCCESS : (needsReschedule ? RESULT_RESCHEDULE : RESULT_FAILURE);
+        sendResult(connection.remote, result);
+        jobScheduler.onJobCompleted(connection.jobId, needsReschedule);
+        // Stopping with the latest start id while other jobs are running would destroy the service under them.
+        if (connections.size() == 0) {
+            stopSelf(lastStartId);
         }
+    }
+
+    /**
+     * Passes {@code result} to {@link GcmNetworkManager}'s callback.
+     */
+    private void sendResult(IBinder remote, int result) {
         Parcel request = Parcel.obtain();
         Parcel response = Parcel.obtain();
         try {
             request.writeInterfaceToken(DESCRIPTOR);
-            response.writeInt(success ? RESULT_SUCCESS : (needsReschedule ? RESULT_RESCHEDULE : RESULT_FAILURE));
-            connection.remote.transact(TRANSACTION_TASK_FINISHED, request, response, 0);
+            response.writeInt(result);
+            remote.transact(TRANSACTION_TASK_FINISHED, request, response, 0);
             response.readException();
         } catch (RemoteException | RuntimeException e) {
             Log.w(LOG_TAG, "Encountered error while running the callback", e);
@@ -166,8 +232,17 @@ public class GcmJobService extends Service implements JobService.Binder.Callback
             request.recycle();
             response.recycle();
         }
-        jobScheduler.onJobCompleted(connection.jobId, needsReschedule);
-        stopSelf(connection.startId);
+    }
+
+    private boolean isNetworkSatisfied(JobStatus jobStatus) {
+        if (!jobStatus.hasConnectivityConstraint()) {
+            return true;
+        }
+        NetworkState networkState = NetworkState.get(this);
+        return networkState.satisfies(jobStatus.getJob())
+                && (!jobStatus.needsNonRoamingConnectivity() || networkState.isNotRoaming())
+                && (!jobStatus.needsMeteredConnectivity() || networkState.isMetered())
+                && (!jobStatus.prefersUnmeteredConnectivity() || networkState.isUnmetered());
     }
 
     private boolean isOverrideDeadlineExpired(JobStatus jobStatus) {
@@ -182,42 +257,55 @@ public class GcmJobService extends Service implements JobService.Binder.Callback
     }
 
     /**
-     * {@link ServiceConnection} to the user's {@link JobService} that starts jobs when connected.
+     * Job running in the user's {@link JobService}, started once its binding is connected.
      */
-    private class Connection implements ServiceConnection {
+    private class Connection implements JobServiceConnections.Callback {
         private final int jobId;
-        private final int startId;
+        private final ComponentName service;
         private final JobParameters params;
         private final IBinder remote;
+        private final JobHistory.Run run;
 
         private JobService.Binder binder;
+        private boolean stopped;
+
+        /** Asks the job to stop once it exceeds the maximum execution time, rescheduling it if requested. */
+        private final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (connections.get(jobId) == Connection.this) {
+                    JobTimeouts.record(jobId);
+                    boolean needsReschedule = binder != null && binder.stopJob(params);
+                    stopJob(Connection.this, JobExecution.STOP_REASON_TIMEOUT, false, needsReschedule);
+                }
+            }
+        };
 
-        private Connection(int jobId, int startId, JobParameters params, IBinder remote) {
+        private Connection(int jobId, ComponentName service, JobParameters params, IBinder remote,
+                           JobHistory.Run run) {
             this.jobId = jobId;
-            this.startId = startId;
+            this.service = service;
             this.params = params;
             this.remote = remote;
+            this.run = run;
         }
 
         @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            if (!(service instanceof JobService.Binder)) {
-                Log.w(LOG_TAG, "Unknown service connected: " + service);
-                stopJob(this, false, false);
+        public void onConnected(JobService.Binder binder) {
+            if (connections.get(jobId) != this) {
                 return;
             }
-            binder = (JobService.Binder) service;
+            this.binder = binder;
             if (!binder.startJob(params, GcmJobService.this)) {
-                stopJob(this, true, false);
+                stopJob(this, JobExecution.STOP_REASON_FINISHED, true, false);
             }
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName name) {
-            // Should never happen as it's the same process.
+        public void onDisconnected() {
             binder = null;
             if (connections.get(jobId) == this) {
-                stopJob(this, false, false);
+                stopJob(this, JobExecution.STOP_REASON_SERVICE_UNAVAILABLE, false, false);
             }
         }
     }
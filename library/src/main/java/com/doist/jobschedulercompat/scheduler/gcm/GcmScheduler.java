@@ -160,17 +160,20 @@ public class GcmScheduler extends Scheduler {
               .putExtra(PARAM_REQUIRES_IDLE, job.isRequireDeviceIdle());
         int requiredNetwork;
         switch (job.getNetworkType()) {
-            case JobInfo.NETWORK_TYPE_ANY:
-                requiredNetwork = NETWORK_STATE_CONNECTED;
+            case JobInfo.NETWORK_TYPE_NONE:
+                requiredNetwork = NETWORK_STATE_ANY;
                 break;
 
             case JobInfo.NETWORK_TYPE_UNMETERED:
                 requiredNetwork = NETWORK_STATE_UNMETERED;
                 break;
 
-            case JobInfo.NETWORK_TYPE_NONE:
+            case JobInfo.NETWORK_TYPE_ANY:
+            case JobInfo.NETWORK_TYPE_NOT_ROAMING:
+            case JobInfo.NETWORK_TYPE_CELLULAR:
             default:
-                requiredNetwork = NETWORK_STATE_ANY;
+                // Anything finer than this is checked by GcmJobService before running the job.
+                requiredNetwork = NETWORK_STATE_CONNECTED;
                 break;
         }
         intent.putExtra(PARAM_REQUIRED_NETWORK, requiredNetwork);
@@ -1,21 +1,28 @@
 package com.doist.jobschedulercompat.scheduler.jobscheduler;
 
+import com.doist.jobschedulercompat.JobExecution;
 import com.doist.jobschedulercompat.JobParameters;
 import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
 import com.doist.jobschedulercompat.JobService;
 import com.doist.jobschedulercompat.PersistableBundle;
+import com.doist.jobschedulercompat.job.JobHistory;
 import com.doist.jobschedulercompat.job.JobStatus;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
 
 import android.annotation.TargetApi;
 import android.content.ComponentName;
-import android.content.Intent;
-import android.content.ServiceConnection;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.IBinder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import androidx.annotation.RestrictTo;
 
 /**
@@ -30,6 +37,7 @@ public class JobSchedulerJobService extends android.app.job.JobService implement
 
     protected JobScheduler jobScheduler;
     private final SparseArray<Connection> connections = new SparseArray<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
 
     @Override
     public void onCreate() {
@@ -50,7 +58,7 @@ public class JobSchedulerJobService extends android.app.job.JobService implement
             JobService.Binder binder = connection.binder;
             boolean needsReschedule = binder != null
                     && binder.stopJob(toLocalParameters(connection.params, connection.transientExtras));
-            stopJob(connection, needsReschedule);
+            stopJob(connection, JobExecution.STOP_REASON_STOPPED, needsReschedule);
             return needsReschedule;
         } else {
             return false;
@@ -58,43 +66,65 @@ public class JobSchedulerJobService extends android.app.job.JobService implement
     }
 
     @Override
-    public void jobFinished(JobParameters params, boolean needsReschedule) {
-        Connection connection = connections.get(params.getJobId());
-        if (connection != null) {
-            stopJob(connection, needsReschedule);
-        }
+    public void jobFinished(final JobParameters params, final boolean needsReschedule) {
+        // There are no guarantees on which thread this is called from.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Connection connection = connections.get(params.getJobId());
+                if (connection != null) {
+                    stopJob(connection, JobExecution.STOP_REASON_FINISHED, needsReschedule);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        JobHistory.get(this).dump(writer);
     }
 
     /**
-     * Starts the user's {@link JobService} by binding to it.
+     * Starts the user's {@link JobService} through its shared binding, binding to it if needed.
      */
     private void startJob(android.app.job.JobParameters params) {
         int jobId = params.getJobId();
         JobStatus jobStatus = jobScheduler.getJob(jobId);
         if (jobStatus != null) {
-            Connection connection = new Connection(jobId, params, jobStatus.getJob().getTransientExtras());
-            Intent jobIntent = new Intent();
             ComponentName service = jobStatus.getServiceComponent();
-            jobIntent.setComponent(service);
-            if (bindService(jobIntent, connection, BIND_AUTO_CREATE)) {
-                connections.put(jobId, connection);
-            } else {
+            Connection connection = new Connection(
+                    jobId, service, params, jobStatus.getJob().getTransientExtras(), JobHistory.start(jobStatus));
+            connections.put(jobId, connection);
+            JobSchedulerMetrics metrics = JobScheduler.getMetrics();
+            if (metrics != null) {
+                long readyTime = jobStatus.getReadyTimeElapsed();
+                if (readyTime != JobStatus.NO_READY_TIME) {
+                    long readyDuration = Math.max(SystemClock.elapsedRealtime() - readyTime, 0L);
+                    metrics.onJobStarted(jobId, jobStatus.getSchedulerTag(), readyDuration);
+                }
+            }
+            if (!JobServiceConnections.get(this).connect(service, connection)) {
                 Log.w(LOG_TAG, "Unable to bind to service: " + service + ". Have you declared it in the manifest?");
-                stopJob(connection, true);
+                stopJob(connection, JobExecution.STOP_REASON_SERVICE_UNAVAILABLE, true);
             }
         }
     }
 
     /**
-     * Stops the user's {@link android.app.job.JobService} by unbinding from it and passing the result to the platform.
+     * Stops the user's {@link JobService} by releasing its binding and passing the result to the platform.
+     *
+     * Runs on the main thread, and does nothing if the job was already stopped.
      */
-    private void stopJob(Connection connection, boolean needsReschedule) {
-        connections.remove(connection.jobId);
-        try {
-            unbindService(connection);
-        } catch (IllegalArgumentException e) {
-            // Service not registered at this point. Drop it.
+    private void stopJob(Connection connection, int stopReason, boolean needsReschedule) {
+        if (connection.stopped) {
+            return;
+        }
+        connection.stopped = true;
+        JobHistory.get(this).record(connection.run, stopReason, needsReschedule);
+        if (connections.get(connection.jobId) == connection) {
+            connections.remove(connection.jobId);
         }
+        JobServiceConnections.get(this).disconnect(connection.service, connection);
         jobFinished(connection.params, needsReschedule);
         jobScheduler.onJobCompleted(connection.jobId, needsReschedule);
     }
@@ -123,40 +153,43 @@ public class JobSchedulerJobService extends android.app.job.JobService implement
     }
 
     /**
-     * {@link ServiceConnection} to the user's {@link JobService} that starts jobs when connected.
+     * Job running in the user's {@link JobService}, started once its binding is connected.
      */
-    private class Connection implements ServiceConnection {
+    private class Connection implements JobServiceConnections.Callback {
         private final int jobId;
+        private final ComponentName service;
         private final android.app.job.JobParameters params;
         // Used below O.
         private final Bundle transientExtras;
+        private final JobHistory.Run run;
         private JobService.Binder binder;
+        private boolean stopped;
 
-        private Connection(int jobId, android.app.job.JobParameters params, Bundle transientExtras) {
+        private Connection(int jobId, ComponentName service, android.app.job.JobParameters params,
+                           Bundle transientExtras, JobHistory.Run run) {
             this.jobId = jobId;
+            this.service = service;
             this.params = params;
             this.transientExtras = transientExtras;
+            this.run = run;
         }
 
         @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            if (!(service instanceof JobService.Binder)) {
-                Log.w(LOG_TAG, "Unknown service connected: " + service);
-                stopJob(this, false);
+        public void onConnected(JobService.Binder binder) {
+            if (connections.get(jobId) != this) {
                 return;
             }
-            binder = (JobService.Binder) service;
+            this.binder = binder;
             if (!binder.startJob(toLocalParameters(params, transientExtras), JobSchedulerJobService.this)) {
-                stopJob(this, false);
+                stopJob(this, JobExecution.STOP_REASON_FINISHED, false);
             }
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName name) {
-            // Should never happen as it's the same process.
+        public void onDisconnected() {
             binder = null;
             if (connections.get(jobId) == this) {
-                stopJob(this, false);
+                stopJob(this, JobExecution.STOP_REASON_SERVICE_UNAVAILABLE, false);
             }
         }
     }
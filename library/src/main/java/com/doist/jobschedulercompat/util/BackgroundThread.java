@@ -0,0 +1,45 @@
+package com.doist.jobschedulercompat.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.annotation.RestrictTo;
+
+/**
+ * Same as com.android.internal.os.BackgroundThread, with minor modifications.
+ *
+ * Library-owned thread for short, serial work that shouldn't run on the main thread, such as observing content
+ * changes and evaluating alarm-based jobs.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class BackgroundThread extends HandlerThread {
+    private static BackgroundThread instance;
+    private static Handler handler;
+
+    private BackgroundThread() {
+        super("jsc:background", Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    private static void ensureThreadLocked() {
+        if (instance == null) {
+            instance = new BackgroundThread();
+            instance.start();
+            handler = new Handler(instance.getLooper());
+        }
+    }
+
+    public static BackgroundThread get() {
+        synchronized (BackgroundThread.class) {
+            ensureThreadLocked();
+            return instance;
+        }
+    }
+
+    public static Handler getHandler() {
+        synchronized (BackgroundThread.class) {
+            ensureThreadLocked();
+            return handler;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.doist.jobschedulercompat.util;
+
+import com.doist.jobschedulercompat.JobInfo;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+/**
+ * Immutable snapshot of the default network, including its capabilities on Marshmallow and above.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class NetworkState {
+    // Capability and transport ids are small and contiguous, and unknown ones are ignored by NetworkCapabilities.
+    private static final int MAX_CAPABILITY = Long.SIZE - 1;
+    private static final int MAX_TRANSPORT = Integer.SIZE - 1;
+
+    @NonNull
+    public static NetworkState get(Context context) {
+        return create((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE));
+    }
+
+    @SuppressWarnings("deprecation")
+    @NonNull
+    public static NetworkState create(ConnectivityManager manager) {
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        boolean connected = info != null && info.isConnected();
+        boolean metered = connected && manager.isActiveNetworkMetered();
+        boolean roaming = connected && info.isRoaming();
+        NetworkCapabilities capabilities = null;
+        if (connected && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            capabilities = getActiveNetworkCapabilities(manager);
+        }
+        return new NetworkState(connected, metered, roaming, capabilities);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static NetworkCapabilities getActiveNetworkCapabilities(ConnectivityManager manager) {
+        Network network = manager.getActiveNetwork();
+        return network != null ? manager.getNetworkCapabilities(network) : null;
+    }
+
+    private final boolean connected;
+    private final boolean metered;
+    private final boolean roaming;
+    @Nullable
+    private final NetworkCapabilities capabilities;
+    private final long capabilityMask;
+    private final int transportMask;
+
+    NetworkState(boolean connected, boolean metered, boolean roaming, @Nullable NetworkCapabilities capabilities) {
+        this.connected = connected;
+        this.metered = metered;
+        this.roaming = roaming;
+        this.capabilities = capabilities;
+        if (capabilities != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            this.capabilityMask = getCapabilityMask(capabilities);
+            this.transportMask = getTransportMask(capabilities);
+        } else {
+            this.capabilityMask = 0;
+            this.transportMask = 0;
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isUnmetered() {
+        return connected && !metered;
+    }
+
+    public boolean isMetered() {
+        return connected && metered;
+    }
+
+    public boolean isNotRoaming() {
+        return connected && !roaming;
+    }
+
+    /**
+     * Returns the capabilities of the default network, if connected and on Marshmallow or above.
+     */
+    @Nullable
+    public NetworkCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Returns whether the network has every capability and at least one of the transports (if any) in the job's
+     * {@link JobInfo#getRequiredNetwork()}, eg. whether it's validated, not a VPN, or of a specific transport.
+     *
+     * When either is unavailable, ie. below Pie, only the coarse checks based on {@link JobInfo#getNetworkType()} apply.
+     */
+    public boolean satisfies(JobInfo job) {
+        if (!connected) {
+            return false;
+        }
+        if (capabilities == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            return true;
+        }
+        NetworkRequest request = job.getRequiredNetwork();
+        return request == null || satisfies(request);
+    }
+
+    @TargetApi(Build.VERSION_CODES.P)
+    private boolean satisfies(NetworkRequest request) {
+        for (int capability = 0; capability <= MAX_CAPABILITY; capability++) {
+            if (request.hasCapability(capability) && (capabilityMask & (1L << capability)) == 0) {
+                return false;
+            }
+        }
+        int requestTransportMask = 0;
+        for (int transport = 0; transport <= MAX_TRANSPORT; transport++) {
+            if (request.hasTransport(transport)) {
+                requestTransportMask |= 1 << transport;
+            }
+        }
+        return requestTransportMask == 0 || (requestTransportMask & transportMask) != 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static long getCapabilityMask(NetworkCapabilities capabilities) {
+        long mask = 0;
+        for (int capability = 0; capability <= MAX_CAPABILITY; capability++) {
+            if (capabilities.hasCapability(capability)) {
+                mask |= 1L << capability;
+            }
+        }
+        return mask;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static int getTransportMask(NetworkCapabilities capabilities) {
+        int mask = 0;
+        for (int transport = 0; transport <= MAX_TRANSPORT; transport++) {
+            if (capabilities.hasTransport(transport)) {
+                mask |= 1 << transport;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Compares the state relevant to constraints only, ie. connectivity, metered and roaming state, capabilities and
+     * transports. Details such as bandwidth are left out on purpose, as they change often and don't affect any job.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        NetworkState state = (NetworkState) o;
+        return connected == state.connected && metered == state.metered && roaming == state.roaming
+                && capabilityMask == state.capabilityMask && transportMask == state.transportMask;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = connected ? 1 : 0;
+        result = 31 * result + (metered ? 1 : 0);
+        result = 31 * result + (roaming ? 1 : 0);
+        result = 31 * result + (int) (capabilityMask ^ (capabilityMask >>> 32));
+        result = 31 * result + transportMask;
+        return result;
+    }
+}
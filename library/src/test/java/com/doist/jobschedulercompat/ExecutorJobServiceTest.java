@@ -0,0 +1,153 @@
+package com.doist.jobschedulercompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import android.os.Bundle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExecutorJobServiceTest {
+    private static final int TIMEOUT_MS = 1000;
+
+    private static final String EXTRA_BLOCK = "block";
+    private static final String EXTRA_RESCHEDULE = "reschedule";
+    private static final String EXTRA_ERROR = "error";
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+    private static final AtomicBoolean interrupted = new AtomicBoolean();
+    private static volatile CountDownLatch startedSignal;
+    private static volatile CountDownLatch continueSignal;
+
+    private JobService.Binder binder;
+
+    @Before
+    public void setup() {
+        running.set(0);
+        maxRunning.set(0);
+        interrupted.set(false);
+        startedSignal = new CountDownLatch(1);
+        continueSignal = new CountDownLatch(1);
+        binder = (JobService.Binder) Robolectric.buildService(TestExecutorJobService.class).create().get().onBind(null);
+    }
+
+    @Test
+    public void testFinishesWithResult() throws InterruptedException {
+        FinishedCallback callback = new FinishedCallback();
+
+        assertTrue(binder.startJob(createParams(0, false, true), callback));
+        assertTrue(callback.doneSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(callback.needsReschedule);
+
+        callback = new FinishedCallback();
+
+        assertTrue(binder.startJob(createParams(1, false, false), callback));
+        assertTrue(callback.doneSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(callback.needsReschedule);
+    }
+
+    @Test
+    public void testFinishesOnError() throws InterruptedException {
+        FinishedCallback callback = new FinishedCallback();
+        JobParameters params = createParams(0, false, true);
+        params.getExtras().putBoolean(EXTRA_ERROR, true);
+
+        assertTrue(binder.startJob(params, callback));
+        assertTrue(callback.doneSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(callback.needsReschedule);
+    }
+
+    @Test
+    public void testStopInterruptsJob() throws InterruptedException {
+        FinishedCallback callback = new FinishedCallback();
+        JobParameters params = createParams(0, true, false);
+
+        assertTrue(binder.startJob(params, callback));
+        assertTrue(startedSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(binder.stopJob(params));
+        assertFalse(callback.doneSignal.await(TIMEOUT_MS / 4, TimeUnit.MILLISECONDS));
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void testParallelismIsBounded() throws InterruptedException {
+        int count = TestExecutorJobService.MAX_PARALLELISM * 3;
+        FinishedCallback[] callbacks = new FinishedCallback[count];
+        for (int i = 0; i < count; i++) {
+            callbacks[i] = new FinishedCallback();
+            assertTrue(binder.startJob(createParams(i, true, false), callbacks[i]));
+        }
+        continueSignal.countDown();
+        for (FinishedCallback callback : callbacks) {
+            assertTrue(callback.doneSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+
+        assertEquals(TestExecutorJobService.MAX_PARALLELISM, maxRunning.get());
+    }
+
+    private JobParameters createParams(int jobId, boolean block, boolean reschedule) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putBoolean(EXTRA_BLOCK, block);
+        extras.putBoolean(EXTRA_RESCHEDULE, reschedule);
+        return new JobParameters(jobId, extras, Bundle.EMPTY, null, null, null, false);
+    }
+
+    private static class FinishedCallback implements JobService.Binder.Callback {
+        private final CountDownLatch doneSignal = new CountDownLatch(1);
+        private volatile boolean needsReschedule;
+
+        @Override
+        public void jobFinished(JobParameters params, boolean needsReschedule) {
+            this.needsReschedule = needsReschedule;
+            doneSignal.countDown();
+        }
+    }
+
+    public static class TestExecutorJobService extends ExecutorJobService {
+        static final int MAX_PARALLELISM = 2;
+
+        @Override
+        protected int getMaxParallelism() {
+            return MAX_PARALLELISM;
+        }
+
+        @Override
+        public boolean onRunJob(JobParameters params) {
+            int current = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (current <= max || maxRunning.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+            try {
+                startedSignal.countDown();
+                if (params.getExtras().getBoolean(EXTRA_BLOCK)) {
+                    // Give other jobs a chance to start, if allowed.
+                    Thread.sleep(TIMEOUT_MS / 10);
+                    continueSignal.await();
+                }
+            } catch (InterruptedException e) {
+                interrupted.set(isStopped(params));
+            } finally {
+                running.decrementAndGet();
+            }
+            if (params.getExtras().getBoolean(EXTRA_ERROR)) {
+                throw new AssertionError("Job failed");
+            }
+            return params.getExtras().getBoolean(EXTRA_RESCHEDULE);
+        }
+    }
+}
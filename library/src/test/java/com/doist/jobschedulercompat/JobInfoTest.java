@@ -16,6 +16,7 @@ import java.util.concurrent.TimeUnit;
 import androidx.test.core.app.ApplicationProvider;
 
 import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 @RunWith(RobolectricTestRunner.class)
@@ -34,6 +35,42 @@ public class JobInfoTest {
         assertThat(job.getIntervalMillis(), greaterThan(invalidPeriodicity));
     }
 
+    @Test
+    public void testEstimatedNetworkBytes() {
+        JobInfo job = new JobInfo.Builder(0, component)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setEstimatedNetworkBytes(1024, 128)
+                .build();
+
+        assertEquals(1024, job.getEstimatedNetworkDownloadBytes());
+        assertEquals(128, job.getEstimatedNetworkUploadBytes());
+    }
+
+    @Test
+    public void testExtrasAreCopied() {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt("int", 1);
+        JobInfo job = new JobInfo.Builder(0, component).setExtras(extras).setOverrideDeadline(0).build();
+
+        extras.putInt("int", 2);
+        job.getExtras().putInt("int", 3);
+
+        assertEquals(1, job.getExtras().getInt("int"));
+    }
+
+    @Test
+    public void testNestedExtrasCanBeModified() {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putPersistableBundleCompat("nested", new PersistableBundle());
+        JobInfo job = new JobInfo.Builder(0, component).setExtras(extras).setOverrideDeadline(0).build();
+
+        PersistableBundle jobExtras = job.getExtras();
+        jobExtras.getPersistableBundleCompat("nested").putInt("int", 1);
+
+        assertEquals(1, jobExtras.getPersistableBundleCompat("nested").getInt("int"));
+        assertEquals(0, job.getExtras().getPersistableBundleCompat("nested").size());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testNoServiceShouldFail() {
         new JobInfo.Builder(0, null).build();
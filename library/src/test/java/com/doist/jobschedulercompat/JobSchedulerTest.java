@@ -10,6 +10,7 @@ import com.doist.jobschedulercompat.scheduler.gcm.GcmScheduler;
 import com.doist.jobschedulercompat.scheduler.jobscheduler.JobSchedulerSchedulerV21;
 import com.doist.jobschedulercompat.scheduler.jobscheduler.JobSchedulerSchedulerV24;
 import com.doist.jobschedulercompat.scheduler.jobscheduler.JobSchedulerSchedulerV26;
+import com.doist.jobschedulercompat.util.Benchmark;
 import com.doist.jobschedulercompat.util.JobCreator;
 import com.doist.jobschedulercompat.util.NoopScheduler;
 import com.doist.jobschedulercompat.util.ShadowGoogleApiAvailability;
@@ -23,9 +24,12 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import android.app.Application;
+import android.content.ComponentName;
 import android.os.Build;
 import android.os.SystemClock;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import androidx.test.core.app.ApplicationProvider;
@@ -33,8 +37,12 @@ import androidx.test.core.app.ApplicationProvider;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(RobolectricTestRunner.class)
 public class JobSchedulerTest {
@@ -55,6 +63,9 @@ public class JobSchedulerTest {
 
     @After
     public void teardown() {
+        jobScheduler.setMetrics(null);
+        JobSchedulerSettings.setMaxExtrasSize(JobSchedulerSettings.DEFAULT_MAX_JOB_EXTRAS_SIZE,
+                                              JobSchedulerSettings.DEFAULT_MAX_TOTAL_EXTRAS_SIZE);
         synchronized (JobStore.LOCK) {
             jobStore.clear();
         }
@@ -85,6 +96,67 @@ public class JobSchedulerTest {
         }
     }
 
+    @Test
+    public void testScheduleHasNoExtrasSizeLimitsByDefault() {
+        // Well over the binder transaction buffer in total.
+        PersistableBundle extras = Benchmark.createExtras(5000);
+        for (int i = 0; i < 10; i++) {
+            jobScheduler.schedule(JobCreator.create(application).setRequiresCharging(true).setExtras(extras).build());
+        }
+
+        assertEquals(10 * extras.getEstimatedSize(), jobStore.getEstimatedExtrasSize());
+    }
+
+    @Test
+    public void testScheduleLimitsJobExtrasSize() {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString("string", "value");
+        JobInfo job = JobCreator.create(application).setRequiresCharging(true).setExtras(extras).build();
+        JobSchedulerSettings.setMaxExtrasSize(extras.getEstimatedSize(), extras.getEstimatedSize());
+        jobScheduler.schedule(job);
+
+        assertEquals(extras.getEstimatedSize(), jobStore.getEstimatedExtrasSize());
+
+        extras.putString("string", "a longer value");
+        try {
+            jobScheduler.schedule(JobCreator.create(application).setRequiresCharging(true).setExtras(extras).build());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testScheduleLimitsTotalExtrasSize() {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString("string", "value");
+        JobSchedulerSettings.setMaxExtrasSize(extras.getEstimatedSize(), extras.getEstimatedSize());
+        JobInfo job = JobCreator.create(application).setRequiresCharging(true).setExtras(extras).build();
+        jobScheduler.schedule(job);
+        // Replacing a job doesn't count its previous extras.
+        jobScheduler.schedule(job);
+
+        assertEquals(extras.getEstimatedSize(), jobStore.getEstimatedExtrasSize());
+
+        try {
+            jobScheduler.schedule(JobCreator.create(application).setRequiresCharging(true).setExtras(extras).build());
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        // Jobs already over the limit can still be replaced, as long as they don't grow.
+        JobSchedulerSettings.setMaxExtrasSize(0, 0);
+        jobScheduler.schedule(JobCreator.create(application).setRequiresCharging(true).build());
+        jobScheduler.reschedule(job);
+
+        assertEquals(extras.getEstimatedSize(), jobStore.getEstimatedExtrasSize());
+
+        jobScheduler.cancel(job.getId());
+
+        assertEquals(0, jobStore.getEstimatedExtrasSize());
+    }
+
     @Test
     public void testCancel() {
         JobInfo job = JobCreator.create(application).setRequiresDeviceIdle(true).build();
@@ -135,12 +207,14 @@ public class JobSchedulerTest {
         JobInfo job = JobCreator.create(application).setPeriodic(timeMs).build();
         JobStatus jobStatus = JobStatus.createFromJobInfo(job, noopScheduler.getTag());
         jobStore.add(jobStatus);
+        long earliestRunTimeElapsed = jobStatus.getEarliestRunTimeElapsed();
+        long latestRunTimeElapsed = jobStatus.getLatestRunTimeElapsed();
         Robolectric.getForegroundThreadScheduler().advanceBy(timeMs, TimeUnit.MILLISECONDS);
 
         jobScheduler.onJobCompleted(job.getId(), false);
         JobStatus newJobStatus = jobScheduler.getJob(job.getId());
-        assertEquals(jobStatus.getEarliestRunTimeElapsed() + timeMs, newJobStatus.getEarliestRunTimeElapsed());
-        assertEquals(jobStatus.getLatestRunTimeElapsed() + timeMs, newJobStatus.getLatestRunTimeElapsed());
+        assertEquals(earliestRunTimeElapsed + timeMs, newJobStatus.getEarliestRunTimeElapsed());
+        assertEquals(latestRunTimeElapsed + timeMs, newJobStatus.getLatestRunTimeElapsed());
     }
 
     @Test
@@ -191,6 +265,29 @@ public class JobSchedulerTest {
         assertEquals(currentTimeMs + timeMaxMs, jobStatus.getEarliestRunTimeElapsed(), 1);
     }
 
+    @Test
+    public void testJobFinishedFailureUpdatesInPlace() {
+        JobInfo job = JobCreator.create(application)
+                                .setRequiresCharging(true)
+                                .setOverrideDeadline(TimeUnit.HOURS.toMillis(1))
+                                .build();
+        JobStatus jobStatus = JobStatus.createFromJobInfo(job, noopScheduler.getTag());
+        jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, true);
+        jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_DEADLINE, true);
+        jobStore.add(jobStatus);
+
+        jobScheduler.onJobCompleted(job.getId(), true);
+
+        // Same instance, with the charging state kept and the timing constraints replaced by the back-off.
+        assertSame(jobStatus, jobScheduler.getJob(job.getId()));
+        assertEquals(1, jobStatus.getNumFailures());
+        assertTrue(jobStatus.hasTimingDelayConstraint());
+        assertFalse(jobStatus.hasDeadlineConstraint());
+        assertFalse(jobStatus.isReady());
+        jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_TIMING_DELAY, true);
+        assertTrue(jobStatus.isReady());
+    }
+
     @Test
     public void testJobsByScheduler() {
         JobInfo job = JobCreator.create(application).setRequiresCharging(true).build();
@@ -291,6 +388,58 @@ public class JobSchedulerTest {
         assertThat(jobScheduler.getSchedulerForJob(application, api26Job), instanceOf(AlarmScheduler.class));
     }
 
+    @Test
+    public void testMetrics() {
+        final List<String> events = new ArrayList<>();
+        jobScheduler.setMetrics(new JobSchedulerMetrics() {
+            @Override
+            public void onJobsLoaded(int jobCount, long durationNanos) {
+                events.add("loaded " + jobCount);
+            }
+
+            @Override
+            public void onJobScheduled(int jobId, String schedulerTag, long durationNanos) {
+                events.add("scheduled " + jobId);
+            }
+
+            @Override
+            public void onExtrasMeasured(int jobId, ComponentName service, int extrasSize, long totalExtrasSize) {
+                events.add("measured " + jobId + " " + totalExtrasSize);
+            }
+
+            @Override
+            public void onJobCancelled(int jobId, long durationNanos) {
+                events.add("cancelled " + jobId);
+            }
+
+            @Override
+            public void onAllJobsCancelled(int jobCount, long durationNanos) {
+                events.add("cancelled all " + jobCount);
+            }
+        });
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).startsWith("loaded "));
+
+        JobInfo job = JobCreator.create(application).setMinimumLatency(TimeUnit.HOURS.toMillis(1)).build();
+        jobScheduler.schedule(job);
+        JobInfo job2 = JobCreator.create(application).setMinimumLatency(TimeUnit.HOURS.toMillis(1)).build();
+        jobScheduler.schedule(job2);
+        jobScheduler.cancel(job.getId());
+        jobScheduler.cancelAll();
+
+        assertEquals("scheduled " + job.getId(), events.get(1));
+        assertEquals("measured " + job.getId() + " 0", events.get(2));
+        assertEquals("scheduled " + job2.getId(), events.get(3));
+        assertEquals("measured " + job2.getId() + " 0", events.get(4));
+        assertEquals("cancelled " + job.getId(), events.get(5));
+        assertEquals("cancelled all 1", events.get(6));
+
+        jobScheduler.setMetrics(null);
+        jobScheduler.schedule(job);
+
+        assertEquals(7, events.size());
+    }
+
     @Test
     public void testSchedulerForTag() {
         assertThat(jobScheduler.getSchedulerForTag(application, JobSchedulerSchedulerV26.TAG),
@@ -12,7 +12,9 @@ import android.os.Bundle;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -92,4 +94,112 @@ public class JobServiceTest {
 
         assertTrue(doneSignal.await(TIMEOUT_MS * Math.max(1, PARALLEL_COUNT / 4), TimeUnit.MILLISECONDS));
     }
+
+    @Test
+    public void testSlowStartDoesntBlockFinish() throws InterruptedException {
+        final JobService.Binder binder =
+                (JobService.Binder) Robolectric.buildService(BlockingJobService.class).create().get().onBind(null);
+        BlockingJobService.startSignal = new CountDownLatch(1);
+        BlockingJobService.continueSignal = new CountDownLatch(1);
+
+        final CountDownLatch doneSignal = new CountDownLatch(1);
+        final JobParameters otherParams = new JobParameters(
+                params.getJobId() + 1, PersistableBundle.EMPTY, Bundle.EMPTY, null, null, null, false);
+        binder.startJob(otherParams, new JobService.Binder.Callback() {
+            @Override
+            public void jobFinished(JobParameters params, boolean needsReschedule) {
+                doneSignal.countDown();
+            }
+        });
+
+        // Block in onStartJob on another thread.
+        BlockingJobService.blockedJobId = params.getJobId();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                binder.startJob(params, null);
+            }
+        });
+        thread.start();
+        assertTrue(BlockingJobService.startSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        binder.notifyJobFinished(otherParams, false);
+
+        assertTrue(doneSignal.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        BlockingJobService.continueSignal.countDown();
+        thread.join(TIMEOUT_MS);
+    }
+
+    @Test
+    public void testFinishesOnce() {
+        JobService.Binder binder =
+                (JobService.Binder) Robolectric.buildService(BlockingJobService.class).create().get().onBind(null);
+        BlockingJobService.blockedJobId = -1;
+
+        final AtomicInteger finishCount = new AtomicInteger();
+        binder.startJob(params, new JobService.Binder.Callback() {
+            @Override
+            public void jobFinished(JobParameters params, boolean needsReschedule) {
+                finishCount.incrementAndGet();
+            }
+        });
+        binder.notifyJobFinished(params, false);
+        binder.notifyJobFinished(params, false);
+        binder.stopJob(params);
+
+        assertEquals(1, finishCount.get());
+    }
+
+    @Test
+    public void testDoesntStopIfFinished() {
+        JobService.Binder binder =
+                (JobService.Binder) Robolectric.buildService(BlockingJobService.class).create().get().onBind(null);
+        BlockingJobService.blockedJobId = -1;
+        BlockingJobService.stopCount.set(0);
+
+        binder.startJob(params, new JobService.Binder.Callback() {
+            @Override
+            public void jobFinished(JobParameters params, boolean needsReschedule) {
+                // Nothing to do.
+            }
+        });
+        binder.notifyJobFinished(params, false);
+
+        assertFalse(binder.stopJob(params));
+        assertEquals(0, BlockingJobService.stopCount.get());
+
+        binder.startJob(params, null);
+
+        assertTrue(binder.stopJob(params));
+        assertEquals(1, BlockingJobService.stopCount.get());
+        assertFalse(binder.stopJob(params));
+        assertEquals(1, BlockingJobService.stopCount.get());
+    }
+
+    public static class BlockingJobService extends JobService {
+        static volatile int blockedJobId;
+        static volatile CountDownLatch startSignal;
+        static volatile CountDownLatch continueSignal;
+        static final AtomicInteger stopCount = new AtomicInteger();
+
+        @Override
+        public boolean onStartJob(JobParameters params) {
+            if (params.getJobId() == blockedJobId) {
+                startSignal.countDown();
+                try {
+                    continueSignal.await();
+                } catch (InterruptedException e) {
+                    // Ignore.
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onStopJob(JobParameters params) {
+            stopCount.incrementAndGet();
+            return true;
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package com.doist.jobschedulercompat;
+
+import com.doist.jobschedulercompat.util.Benchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.os.Bundle;
+
+@RunWith(RobolectricTestRunner.class)
+public class PersistableBundleBenchmark {
+    private static final int[] SIZES = new int[]{10, 100, 1000};
+
+    @Before
+    public void setup() {
+        Benchmark.assumeEnabled();
+    }
+
+    @Test
+    public void benchmarkConversions() throws Exception {
+        for (int size : SIZES) {
+            final PersistableBundle bundle = Benchmark.createExtras(size);
+            Benchmark.measure("toMap size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() {
+                    return bundle.toMap(10);
+                }
+            });
+            Benchmark.measure("toBundle size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() {
+                    return bundle.toBundle();
+                }
+            });
+            Benchmark.measure("toPersistableBundle size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() {
+                    return bundle.toPersistableBundle();
+                }
+            });
+
+            final Bundle platformBundle = bundle.toBundle();
+            Benchmark.measure("fromBundle size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() {
+                    return new PersistableBundle(platformBundle);
+                }
+            });
+            final android.os.PersistableBundle platformPersistableBundle = bundle.toPersistableBundle();
+            Benchmark.measure("fromPersistableBundle size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() {
+                    return new PersistableBundle(platformPersistableBundle);
+                }
+            });
+        }
+    }
+}
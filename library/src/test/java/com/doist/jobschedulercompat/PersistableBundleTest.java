@@ -16,6 +16,9 @@ import java.util.Map;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
@@ -131,6 +134,178 @@ public class PersistableBundleTest {
         assertEquals("ok", bundle.get("test"));
     }
 
+    @Test
+    public void testTypedValues() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putInt("int", 1);
+        bundle.putLong("long", Long.MAX_VALUE);
+        bundle.putDouble("double", -0.5);
+        bundle.putBoolean("boolean", true);
+        bundle.putString("null", null);
+
+        assertEquals(1, bundle.getInt("int"));
+        assertEquals(Long.MAX_VALUE, bundle.getLong("long"));
+        assertEquals(-0.5, bundle.getDouble("double"), 0);
+        assertTrue(bundle.getBoolean("boolean"));
+        assertEquals(1, bundle.get("int"));
+        assertEquals(Long.MAX_VALUE, bundle.get("long"));
+        assertTrue(bundle.containsKey("null"));
+        assertEquals("default", bundle.getString("null", "default"));
+
+        // Values of another type are treated as missing.
+        assertEquals(7L, bundle.getLong("int", 7L));
+        assertEquals(7, bundle.getInt("long", 7));
+        assertFalse(bundle.getBoolean("int"));
+        assertNull(bundle.getIntArray("int"));
+
+        bundle.putString("int", "string");
+
+        assertEquals(0, bundle.getInt("int"));
+        assertEquals("string", bundle.getString("int"));
+        assertEquals(5, bundle.size());
+    }
+
+    @Test
+    public void testManyKeys() {
+        PersistableBundle bundle = new PersistableBundle();
+        for (int i = 99; i >= 0; i--) {
+            bundle.putInt("key" + i, i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            bundle.remove("key" + i);
+        }
+
+        assertEquals(50, bundle.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 != 0, bundle.containsKey("key" + i));
+            assertEquals(i % 2 != 0 ? i : -1, bundle.getInt("key" + i, -1));
+        }
+
+        PersistableBundle other = new PersistableBundle();
+        other.putInt("key0", 0);
+        other.putInt("key1", -1);
+        bundle.putAll(other);
+
+        assertEquals(51, bundle.size());
+        assertEquals(0, bundle.getInt("key0", -1));
+        assertEquals(-1, bundle.getInt("key1"));
+
+        bundle.clear();
+
+        assertTrue(bundle.isEmpty());
+        assertFalse(bundle.containsKey("key1"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFrozenCopyCantBeModified() {
+        getFilledBundle(2).frozenCopy().putInt("int", 1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFrozenCopyIsDeep() {
+        getFilledBundle(2).frozenCopy().getPersistableBundleCompat("bundle").putInt("int", 1);
+    }
+
+    @Test
+    public void testFrozenCopyMemoizesConversions() {
+        PersistableBundle bundle = getFilledBundle(10);
+        PersistableBundle frozen = bundle.frozenCopy();
+
+        assertSame(frozen, frozen.frozenCopy());
+        assertEquals(bundle.toMap(10), frozen.toMap(10));
+        assertSame(frozen.toMap(10), frozen.toMap(10));
+        assertSame(frozen.toPersistableBundle(), frozen.toPersistableBundle());
+        assertEquals(bundle.toMap(10), new PersistableBundle(frozen.toBundle()).toMap(10));
+        assertNotSame(frozen.toBundle(), frozen.toBundle());
+    }
+
+    @Test
+    public void testFrozenToBundleHasModifiableNestedBundles() {
+        PersistableBundle frozen = getFilledBundle(2).frozenCopy();
+
+        frozen.toBundle().getBundle("bundle").putInt("int", 1);
+
+        assertEquals(0, frozen.toBundle().getBundle("bundle").getInt("int"));
+    }
+
+    @Test
+    public void testCopyOfFrozenIsCopyOnWrite() {
+        PersistableBundle frozen = getFilledBundle(2).frozenCopy();
+        PersistableBundle copy = new PersistableBundle(frozen);
+
+        assertSame(frozen, copy.frozenCopy());
+        assertSame(frozen.toMap(10), copy.toMap(10));
+
+        copy.putInt("int", 1);
+        copy.remove("string");
+
+        assertEquals(1, copy.getInt("int"));
+        assertFalse(copy.containsKey("string"));
+        assertEquals(0, frozen.getInt("int"));
+        assertTrue(frozen.containsKey("string"));
+        assertNotSame(frozen, copy.frozenCopy());
+        assertEquals(1, copy.toMap(10).get("int"));
+
+        PersistableBundle cleared = new PersistableBundle(frozen);
+        cleared.clear();
+
+        assertTrue(cleared.isEmpty());
+        assertEquals(frozen.size(), new PersistableBundle(frozen).size());
+    }
+
+    @Test
+    public void testCopyOfFrozenHasModifiableNestedBundles() {
+        PersistableBundle frozen = getFilledBundle(2).frozenCopy();
+        PersistableBundle copy = new PersistableBundle(frozen);
+
+        copy.getPersistableBundleCompat("bundle").putInt("nested", 1);
+        ((PersistableBundle) copy.get("bundle")).putInt("nested2", 2);
+
+        assertEquals(1, copy.getPersistableBundleCompat("bundle").getInt("nested"));
+        assertEquals(2, copy.getPersistableBundleCompat("bundle").getInt("nested2"));
+        assertFalse(frozen.getPersistableBundleCompat("bundle").containsKey("nested"));
+        assertFalse(frozen.getPersistableBundleCompat("bundle").containsKey("nested2"));
+    }
+
+    @Test
+    public void testEstimatedSize() {
+        PersistableBundle bundle = new PersistableBundle();
+        assertEquals(0, bundle.getEstimatedSize());
+
+        bundle.putInt("int", 1);
+        int intSize = bundle.getEstimatedSize();
+        assertTrue(intSize > 0);
+
+        bundle.putString("string", "value");
+        int stringSize = bundle.getEstimatedSize();
+        assertTrue(stringSize > intSize);
+        bundle.putString("string", "a longer value");
+        assertTrue(bundle.getEstimatedSize() > stringSize);
+        bundle.putString("string", "value");
+        assertEquals(stringSize, bundle.getEstimatedSize());
+
+        bundle.putLongArray("longs", new long[100]);
+        assertTrue(bundle.getEstimatedSize() > stringSize + 100 * 8);
+        bundle.remove("longs");
+        assertEquals(stringSize, bundle.getEstimatedSize());
+
+        PersistableBundle nested = new PersistableBundle();
+        bundle.putPersistableBundleCompat("nested", nested);
+        int nestedSize = bundle.getEstimatedSize();
+        nested.putString("string", "value");
+        assertEquals(nestedSize + nested.getEstimatedSize(), bundle.getEstimatedSize());
+
+        PersistableBundle frozen = bundle.frozenCopy();
+        assertEquals(bundle.getEstimatedSize(), frozen.getEstimatedSize());
+        PersistableBundle copy = new PersistableBundle(frozen);
+        assertEquals(frozen.getEstimatedSize(), copy.getEstimatedSize());
+        copy.putAll(frozen);
+        assertEquals(frozen.getEstimatedSize(), copy.getEstimatedSize());
+
+        bundle.clear();
+        assertEquals(0, bundle.getEstimatedSize());
+    }
+
     @Test
     public void testPersistableBundleConversion() {
         PersistableBundle bundle = getFilledBundle(10);
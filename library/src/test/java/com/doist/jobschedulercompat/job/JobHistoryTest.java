@@ -0,0 +1,109 @@
+package com.doist.jobschedulercompat.job;
+
+import com.doist.jobschedulercompat.JobExecution;
+import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.util.JobCreator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.app.Application;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class JobHistoryTest {
+    private Application application;
+    private JobHistory jobHistory;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        JobHistory.reset();
+        jobHistory = JobHistory.get(application);
+    }
+
+    @After
+    public void teardown() {
+        JobHistory.reset();
+    }
+
+    @Test
+    public void testRecordsPerJob() {
+        JobStatus jobStatus = createJobStatus();
+        JobStatus otherJobStatus = createJobStatus();
+
+        jobHistory.record(JobHistory.start(jobStatus), JobExecution.STOP_REASON_FINISHED, false);
+        jobHistory.record(JobHistory.start(otherJobStatus), JobExecution.STOP_REASON_STOPPED, true);
+        jobHistory.record(JobHistory.start(jobStatus), JobExecution.STOP_REASON_TIMEOUT, true);
+
+        List<JobExecution> executions = jobHistory.getExecutions(jobStatus.getJobId());
+        assertEquals(2, executions.size());
+        assertEquals(JobExecution.STOP_REASON_FINISHED, executions.get(0).getStopReason());
+        assertEquals(JobExecution.STOP_REASON_TIMEOUT, executions.get(1).getStopReason());
+        assertTrue(executions.get(1).needsReschedule());
+        assertEquals("noop", executions.get(1).getSchedulerTag());
+        assertEquals(1, jobHistory.getExecutions(otherJobStatus.getJobId()).size());
+    }
+
+    @Test
+    public void testKeepsMostRecentExecutions() {
+        JobStatus jobStatus = createJobStatus();
+        for (int i = 0; i < JobHistory.MAX_EXECUTIONS; i++) {
+            jobHistory.record(JobHistory.start(jobStatus), JobExecution.STOP_REASON_FINISHED, false);
+        }
+        jobHistory.record(JobHistory.start(jobStatus), JobExecution.STOP_REASON_CANCELLED, false);
+
+        List<JobExecution> executions = jobHistory.getExecutions();
+        assertEquals(JobHistory.MAX_EXECUTIONS, executions.size());
+        assertEquals(JobExecution.STOP_REASON_CANCELLED,
+                     executions.get(JobHistory.MAX_EXECUTIONS - 1).getStopReason());
+    }
+
+    @Test
+    public void testPersists() {
+        JobStatus jobStatus = createJobStatus();
+        jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, true);
+        jobHistory.record(JobHistory.start(jobStatus), JobExecution.STOP_REASON_STOPPED, true);
+        jobHistory.persist();
+
+        JobHistory.reset();
+        List<JobExecution> executions = JobHistory.get(application).getExecutions(jobStatus.getJobId());
+        assertEquals(1, executions.size());
+        JobExecution execution = executions.get(0);
+        assertEquals(JobExecution.STOP_REASON_STOPPED, execution.getStopReason());
+        assertTrue(execution.needsReschedule());
+        assertEquals("noop", execution.getSchedulerTag());
+        assertEquals(jobStatus.getRequiredConstraints(), execution.getRequiredConstraints());
+        assertEquals(JobStatus.CONSTRAINT_CHARGING, execution.getSatisfiedConstraints());
+    }
+
+    @Test
+    public void testDump() {
+        JobStatus jobStatus = createJobStatus();
+        jobHistory.record(JobHistory.start(jobStatus), JobExecution.STOP_REASON_TIMEOUT, false);
+
+        StringWriter writer = new StringWriter();
+        jobHistory.dump(new PrintWriter(writer));
+
+        assertThat(writer.toString(), containsString("jobId=" + jobStatus.getJobId()));
+        assertThat(writer.toString(), containsString("stopReason=timeout"));
+    }
+
+    private JobStatus createJobStatus() {
+        JobInfo job = JobCreator.create(application).setRequiresCharging(true).build();
+        return JobStatus.createFromJobInfo(job, "noop");
+    }
+}
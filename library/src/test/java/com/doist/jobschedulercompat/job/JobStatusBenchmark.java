@@ -0,0 +1,59 @@
+package com.doist.jobschedulercompat.job;
+
+import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.util.Benchmark;
+import com.doist.jobschedulercompat.util.JobCreator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.app.Application;
+
+import androidx.test.core.app.ApplicationProvider;
+
+@RunWith(RobolectricTestRunner.class)
+public class JobStatusBenchmark {
+    private JobStatus jobStatus;
+
+    @Before
+    public void setup() {
+        Benchmark.assumeEnabled();
+        Application application = ApplicationProvider.getApplicationContext();
+        JobInfo job = JobCreator.create(application)
+                                .setRequiresCharging(true)
+                                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                                .setMinimumLatency(60000L)
+                                .setOverrideDeadline(120000L)
+                                .build();
+        jobStatus = JobStatus.createFromJobInfo(job, "noop");
+    }
+
+    @Test
+    public void benchmarkIsReady() throws Exception {
+        jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, true);
+        Benchmark.measure("isReady", new Benchmark.Operation() {
+            @Override
+            public Object run() {
+                return jobStatus.isReady();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkSetConstraintSatisfied() throws Exception {
+        Benchmark.measure("setConstraintSatisfied", new Benchmark.Operation() {
+            private boolean state;
+
+            @Override
+            public Object run() {
+                state = !state;
+                jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, state);
+                jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_UNMETERED, state);
+                jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_TIMING_DELAY, state);
+                return jobStatus.isReady();
+            }
+        });
+    }
+}
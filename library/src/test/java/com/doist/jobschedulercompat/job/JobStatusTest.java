@@ -12,7 +12,9 @@ import android.content.ComponentName;
 import android.net.Uri;
 import android.os.SystemClock;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.test.core.app.ApplicationProvider;
 
@@ -144,6 +146,32 @@ public class JobStatusTest {
         assertTrue(jobStatus.isReady());
     }
 
+    @Test
+    public void testLargeTransfersPreferUnmetered() {
+        long largeBytes = JobStatus.LARGE_NETWORK_TRANSFER_BYTES;
+        JobInfo.Builder builder = new JobInfo.Builder(0, component)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setEstimatedNetworkBytes(largeBytes / 2, largeBytes / 2);
+
+        // No deadline to bound the wait.
+        assertFalse(JobStatus.createFromJobInfo(builder.build(), "noop").prefersUnmeteredConnectivity());
+
+        builder.setOverrideDeadline(TimeUnit.HOURS.toMillis(1));
+        assertTrue(JobStatus.createFromJobInfo(builder.build(), "noop").prefersUnmeteredConnectivity());
+
+        builder.setEstimatedNetworkBytes(largeBytes / 2, JobInfo.NETWORK_BYTES_UNKNOWN);
+        assertFalse(JobStatus.createFromJobInfo(builder.build(), "noop").prefersUnmeteredConnectivity());
+
+        builder.setEstimatedNetworkBytes(0, largeBytes);
+        assertTrue(JobStatus.createFromJobInfo(builder.build(), "noop").prefersUnmeteredConnectivity());
+
+        builder.setEstimatedNetworkBytes(largeBytes / 2 + 1, largeBytes / 4);
+        assertFalse(JobStatus.createFromJobInfo(builder.build(), "noop").prefersUnmeteredConnectivity());
+
+        builder.setEstimatedNetworkBytes(largeBytes, 0).setRequiredNetworkType(JobInfo.NETWORK_TYPE_CELLULAR);
+        assertFalse(JobStatus.createFromJobInfo(builder.build(), "noop").prefersUnmeteredConnectivity());
+    }
+
     @Test
     public void testDeadlineTrumpsAllConstraints() {
         JobStatus jobStatus = JobStatus.createFromJobInfo(
@@ -211,6 +239,81 @@ public class JobStatusTest {
         assertEquals(jobStatus.getTriggerContentMaxDelay(), JobStatus.MIN_TRIGGER_MAX_DELAY);
     }
 
+    @Test
+    public void testConcurrentConstraintUpdates() throws InterruptedException {
+        final JobStatus jobStatus = JobStatus.createFromJobInfo(
+                new JobInfo.Builder(0, component)
+                        .setRequiresCharging(true)
+                        .setRequiresBatteryNotLow(true)
+                        .setRequiresStorageNotLow(true)
+                        .setRequiresDeviceIdle(true)
+                        .build(), "noop");
+        final int[] constraints = new int[]{
+                JobStatus.CONSTRAINT_CHARGING, JobStatus.CONSTRAINT_BATTERY_NOT_LOW,
+                JobStatus.CONSTRAINT_STORAGE_NOT_LOW, JobStatus.CONSTRAINT_IDLE};
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] threads = new Thread[constraints.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int constraint = constraints[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 10000; j++) {
+                        jobStatus.setConstraintSatisfied(constraint, j % 2 == 0);
+                    }
+                    jobStatus.setConstraintSatisfied(constraint, true);
+                }
+            });
+            threads[i].start();
+        }
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int constraint : constraints) {
+            assertTrue(jobStatus.isConstraintSatisfied(constraint));
+        }
+        assertTrue(jobStatus.isReady());
+    }
+
+    @Test
+    public void testConstraintsChangedListener() {
+        JobStatus jobStatus = JobStatus.createFromJobInfo(
+                new JobInfo.Builder(0, component).setRequiresCharging(true).build(), "noop");
+        final AtomicInteger changedConstraints = new AtomicInteger();
+        final AtomicInteger changeCount = new AtomicInteger();
+        jobStatus.setOnConstraintsChangedListener(new JobStatus.OnConstraintsChangedListener() {
+            @Override
+            public void onConstraintsChanged(JobStatus jobStatus, int constraints) {
+                changedConstraints.set(constraints);
+                changeCount.incrementAndGet();
+            }
+        });
+
+        assertTrue(jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, true));
+        assertEquals(JobStatus.CONSTRAINT_CHARGING, changedConstraints.get());
+        assertEquals(1, changeCount.get());
+
+        // Not notified when nothing changes.
+        assertFalse(jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, true));
+        assertEquals(1, changeCount.get());
+
+        assertTrue(jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, false));
+        assertEquals(JobStatus.CONSTRAINT_CHARGING, changedConstraints.get());
+        assertEquals(2, changeCount.get());
+
+        // Not notified once removed.
+        jobStatus.setOnConstraintsChangedListener(null);
+        assertTrue(jobStatus.setConstraintSatisfied(JobStatus.CONSTRAINT_CHARGING, true));
+        assertEquals(2, changeCount.get());
+    }
+
     /**
      * Comparing timestamps before and after method calls involves some latency.
      */
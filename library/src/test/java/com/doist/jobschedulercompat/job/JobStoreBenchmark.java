@@ -0,0 +1,91 @@
+package com.doist.jobschedulercompat.job;
+
+import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.util.Benchmark;
+import com.doist.jobschedulercompat.util.JobCreator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.app.Application;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.core.app.ApplicationProvider;
+
+@RunWith(RobolectricTestRunner.class)
+public class JobStoreBenchmark {
+    private static final int[] JOB_COUNTS = new int[]{10, 100, 1000, 10000};
+    private static final int[] EXTRAS_SIZES = new int[]{0, 10, 100};
+
+    private Application application;
+    private JobStore jobStore;
+
+    @Before
+    public void setup() {
+        Benchmark.assumeEnabled();
+        application = ApplicationProvider.getApplicationContext();
+        jobStore = JobStore.get(application);
+    }
+
+    @After
+    public void teardown() {
+        if (jobStore != null) {
+            synchronized (JobStore.LOCK) {
+                jobStore.clear();
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkWrite() throws Exception {
+        for (int jobCount : JOB_COUNTS) {
+            for (int extrasSize : EXTRAS_SIZES) {
+                final List<JobStatus> jobs = createJobs(jobCount, extrasSize);
+                Benchmark.measure("write jobs=" + jobCount + " extras=" + extrasSize, new Benchmark.Operation() {
+                    @Override
+                    public Object run() {
+                        jobStore.writeJobMapToDisk(jobs);
+                        return null;
+                    }
+                });
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkRead() throws Exception {
+        for (int jobCount : JOB_COUNTS) {
+            for (int extrasSize : EXTRAS_SIZES) {
+                jobStore.writeJobMapToDisk(createJobs(jobCount, extrasSize));
+                Benchmark.measure("read jobs=" + jobCount + " extras=" + extrasSize, new Benchmark.Operation() {
+                    @Override
+                    public Object run() {
+                        JobStore.JobSet jobSet = new JobStore.JobSet();
+                        jobStore.readJobMapFromDisk(jobSet);
+                        return jobSet;
+                    }
+                });
+            }
+        }
+    }
+
+    private List<JobStatus> createJobs(int count, int extrasSize) {
+        List<JobStatus> jobs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            JobInfo job = JobCreator.create(application)
+                                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                                    .setMinimumLatency(60000L)
+                                    .setOverrideDeadline(120000L)
+                                    .setPersisted(true)
+                                    .setExtras(Benchmark.createExtras(extrasSize))
+                                    .build();
+            jobs.add(JobStatus.createFromJobInfo(job, "noop"));
+        }
+        return jobs;
+    }
+}
@@ -136,6 +136,34 @@ public class JobStoreTest {
                 loaded2.getLatestRunTimeElapsed());
     }
 
+    @Test
+    public void testUpdateWritesStatusToDisk() {
+        JobInfo job = JobCreator.create(application)
+                                .setMinimumLatency(2000L)
+                                .setOverrideDeadline(20000L)
+                                .setPersisted(true)
+                                .build();
+        JobStatus jobStatus = JobStatus.createFromJobInfo(job, "noop");
+        jobStore.add(jobStatus);
+        waitForJobStoreWrite();
+
+        int version = jobStatus.getVersion();
+        long elapsedNow = SystemClock.elapsedRealtime();
+        jobStatus.updateTiming(1, elapsedNow + 5000L, JobStatus.NO_LATEST_RUNTIME);
+        jobStore.update(jobStatus);
+        waitForJobStoreWrite();
+
+        assertEquals(version + 2, jobStatus.getVersion());
+        JobStore.JobSet jobStatusSet = new JobStore.JobSet();
+        jobStore.readJobMapFromDisk(jobStatusSet);
+        JobStatus loaded = jobStatusSet.getJobs().get(0);
+        compareTimestampsSubjectToIoLatency(
+                "Early run-times not the same after read",
+                jobStatus.getEarliestRunTimeElapsed(),
+                loaded.getEarliestRunTimeElapsed());
+        assertEquals(JobStatus.NO_LATEST_RUNTIME, loaded.getLatestRunTimeElapsed());
+    }
+
     @Test
     public void testWritingTaskWithExtras() {
         JobInfo.Builder builder =
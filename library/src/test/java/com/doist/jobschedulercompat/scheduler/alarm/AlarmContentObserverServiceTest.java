@@ -39,6 +39,7 @@ public class AlarmContentObserverServiceTest {
     @Before
     public void setup() {
         application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
         jobStore = JobStore.get(application);
         service = Robolectric.buildService(ContentObserverService.class).create();
     }
@@ -88,6 +89,7 @@ public class AlarmContentObserverServiceTest {
             assertEquals(1, shadowOf(contentResolver).getContentObservers(uri).size());
             assertEquals(AlarmJobService.class.getCanonicalName(),
                          shadowOf(application).getNextStartedService().getComponent().getClassName());
+            AlarmJobService.resetStartPending();
         }
     }
 }
@@ -1,8 +1,14 @@
 package com.doist.jobschedulercompat.scheduler.alarm;
 
+import com.doist.jobschedulercompat.JobExecution;
 import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+import com.doist.jobschedulercompat.job.JobHistory;
 import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.job.JobTimeouts;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
+import com.doist.jobschedulercompat.util.BackgroundThread;
 import com.doist.jobschedulercompat.util.DeviceTestUtils;
 import com.doist.jobschedulercompat.util.JobCreator;
 import com.doist.jobschedulercompat.util.ShadowNetworkInfo;
@@ -15,16 +21,20 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.android.controller.ServiceController;
 import org.robolectric.annotation.Config;
+import org.robolectric.util.Scheduler;
 
 import android.app.Application;
 import android.net.Uri;
 import android.os.Build;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import androidx.test.core.app.ApplicationProvider;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(RobolectricTestRunner.class)
@@ -41,12 +51,17 @@ public class AlarmJobServiceTest {
     public void setup() {
         application = ApplicationProvider.getApplicationContext();
         jobStore = JobStore.get(application);
+        JobHistory.reset();
         service = Robolectric.buildService(AlarmJobService.class).create();
     }
 
     @After
     public void teardown() {
         JobCreator.interruptJobs();
+        JobServiceConnections.reset();
+        JobTimeouts.reset();
+        JobHistory.reset();
+        JobSchedulerSettings.setMaxExecutionTime(JobSchedulerSettings.DEFAULT_MAX_EXECUTION_TIME);
         synchronized (JobStore.LOCK) {
             jobStore.clear();
         }
@@ -58,8 +73,9 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, DELAY_MS).setRequiresStorageNotLow(true).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -68,12 +84,125 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, 50).setRequiresCharging(true).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
 
         JobCreator.waitForJob(job.getId());
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
+
+        List<JobExecution> executions = JobHistory.get(application).getExecutions(job.getId());
+        assertEquals(1, executions.size());
+        assertEquals(AlarmScheduler.TAG, executions.get(0).getSchedulerTag());
+        assertEquals(JobExecution.STOP_REASON_FINISHED, executions.get(0).getStopReason());
+        assertFalse(executions.get(0).needsReschedule());
+        assertTrue((executions.get(0).getSatisfiedConstraints() & JobStatus.CONSTRAINT_CHARGING) != 0);
+    }
+
+    @Test
+    public void testJobsShareBindings() {
+        JobInfo job = JobCreator.create(application, LATENCY_MS).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
+        JobInfo otherJob = JobCreator.create(application, LATENCY_MS).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(otherJob, AlarmScheduler.TAG));
+        service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(2);
+        assertEquals(1, shadowOf(application).getBoundServiceConnections().size());
+
+        jobStore.clear();
+        service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
+
+        // The binding is kept for a while, for the next job.
+        assertRunningJobCount(0);
+        assertEquals(0, shadowOf(application).getUnboundServiceConnections().size());
+
+        job = JobCreator.create(application, LATENCY_MS).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
+        service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(1);
+        assertEquals(1, shadowOf(application).getBoundServiceConnections().size());
+
+        jobStore.clear();
+        service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
+        DeviceTestUtils.advanceTime(JobServiceConnections.LINGER);
+
+        assertEquals(1, shadowOf(application).getUnboundServiceConnections().size());
+    }
+
+    @Test
+    public void testQueuedStartCommandsAreCoalesced() {
+        JobInfo job = JobCreator.create(application, DELAY_MS).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
+        Scheduler scheduler = shadowOf(BackgroundThread.get().getLooper()).getScheduler();
+        int queued = scheduler.size();
+        service.startCommand(0, 0);
+        service.startCommand(0, 1);
+        service.startCommand(0, 2);
+
+        assertEquals(queued + 1, scheduler.size());
+
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(1);
+    }
+
+    @Test
+    public void testJobTimesOut() {
+        JobSchedulerSettings.setMaxExecutionTime(DELAY_MS);
+        JobInfo job = JobCreator.create(application, LATENCY_MS).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
+        service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(1);
+        assertEquals(0, JobTimeouts.getCount(job.getId()));
+
+        DeviceTestUtils.advanceTime(DELAY_MS);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(0);
+        assertEquals(1, JobTimeouts.getCount(job.getId()));
+        List<JobExecution> executions = JobHistory.get(application).getExecutions(job.getId());
+        assertEquals(1, executions.size());
+        assertEquals(JobExecution.STOP_REASON_TIMEOUT, executions.get(0).getStopReason());
+        assertTrue(executions.get(0).getDuration() >= DELAY_MS);
+    }
+
+    @Test
+    public void testServiceStopsOnceNoJobsAreRunning() {
+        JobSchedulerSettings.setMaxExecutionTime(LATENCY_MS / 2);
+        JobInfo job = JobCreator.create(application, LATENCY_MS).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
+        service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
+        JobInfo shortJob = JobCreator.create(application, 50).setRequiresStorageNotLow(true).build();
+        jobStore.add(JobStatus.createFromJobInfo(shortJob, AlarmScheduler.TAG));
+        service.startCommand(0, 1);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(2);
+
+        JobCreator.waitForJob(shortJob.getId());
+        DeviceTestUtils.runBackgroundThread();
+
+        // The job with the latest start id finished, but the other one still runs and can still time out.
+        assertRunningJobCount(1);
+        assertFalse(shadowOf(service.get()).isStoppedBySelf());
+
+        DeviceTestUtils.advanceTime(LATENCY_MS / 2);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertRunningJobCount(0);
+        assertEquals(1, JobTimeouts.getCount(job.getId()));
+        assertTrue(shadowOf(service.get()).isStoppedBySelf());
     }
 
     @Test
@@ -82,13 +211,15 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, DELAY_MS).setRequiresCharging(true).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setCharging(application, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -97,13 +228,15 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, DELAY_MS).setRequiresDeviceIdle(true).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setDeviceIdle(application, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -112,13 +245,15 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, DELAY_MS).setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setNetworkInfo(application, true, false, false);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -129,13 +264,15 @@ public class AlarmJobServiceTest {
                                 .build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setNetworkInfo(application, true, false, false);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -146,13 +283,15 @@ public class AlarmJobServiceTest {
                                 .build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setNetworkInfo(application, true, false, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -164,6 +303,8 @@ public class AlarmJobServiceTest {
 
         service.startCommand(0, 0);
 
+        DeviceTestUtils.runBackgroundThread();
+
         assertEquals(ContentObserverService.class.getCanonicalName(),
                      shadowOf(application).getNextStartedService().getComponent().getClassName());
     }
@@ -173,13 +314,15 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, DELAY_MS).setMinimumLatency(LATENCY_MS).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.advanceTime(LATENCY_MS);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -190,13 +333,15 @@ public class AlarmJobServiceTest {
                                 .build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.advanceTime(LATENCY_MS);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -213,28 +358,33 @@ public class AlarmJobServiceTest {
                                 .build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setCharging(application, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setDeviceIdle(application, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.setNetworkInfo(application, true, false, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
 
         DeviceTestUtils.advanceTime(LATENCY_MS);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -244,13 +394,15 @@ public class AlarmJobServiceTest {
         job = JobCreator.create(application, DELAY_MS).setRequiresStorageNotLow(true).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(2);
+        assertRunningJobCount(2);
 
         jobStore.remove(job.getId());
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -260,13 +412,15 @@ public class AlarmJobServiceTest {
         job = JobCreator.create(application, DELAY_MS).setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(2);
+        assertRunningJobCount(2);
 
         jobStore.clear();
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
     }
 
     @Test
@@ -275,16 +429,18 @@ public class AlarmJobServiceTest {
         JobInfo job = JobCreator.create(application, DELAY_MS).setRequiresCharging(true).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
 
         DeviceTestUtils.setCharging(application, false);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
     }
 
-    private void assertBoundServiceCount(int count) {
-        assertEquals(count, shadowOf(application).getBoundServiceConnections().size());
+    private void assertRunningJobCount(int count) {
+        assertEquals(count, JobCreator.getRunningJobCount());
     }
 }
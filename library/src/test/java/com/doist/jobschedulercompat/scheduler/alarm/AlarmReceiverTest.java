@@ -3,6 +3,7 @@ package com.doist.jobschedulercompat.scheduler.alarm;
 import com.doist.jobschedulercompat.JobInfo;
 import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
 import com.doist.jobschedulercompat.util.DeviceTestUtils;
 import com.doist.jobschedulercompat.util.JobCreator;
 import com.doist.jobschedulercompat.util.ShadowContextImpl;
@@ -43,6 +44,8 @@ public class AlarmReceiverTest {
     @Before
     public void setup() {
         application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
+        JobServiceConnections.reset();
         packageManager = application.getPackageManager();
         jobStore = JobStore.get(application);
         service = Robolectric.buildService(AlarmJobService.class).create();
@@ -56,16 +59,20 @@ public class AlarmReceiverTest {
 
         service.startCommand(0, 0);
 
+        DeviceTestUtils.runBackgroundThread();
+
         assertFalse(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
 
         JobInfo job = JobCreator.create(application).setMinimumLatency(TimeUnit.HOURS.toMillis(1)).build();
         jobStore.add(JobStatus.createFromJobInfo(job, AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertTrue(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
 
         jobStore.remove(job.getId());
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertFalse(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
     }
@@ -80,11 +87,13 @@ public class AlarmReceiverTest {
         jobStore.add(JobStatus.createFromJobInfo(
                 JobCreator.create(application).setRequiresCharging(true).build(), AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertTrue(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
 
         DeviceTestUtils.setCharging(application, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertFalse(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
     }
@@ -99,11 +108,13 @@ public class AlarmReceiverTest {
         jobStore.add(JobStatus.createFromJobInfo(
                 JobCreator.create(application).setRequiresStorageNotLow(true).build(), AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertTrue(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
 
         DeviceTestUtils.setStorageNotLow(application, true);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertFalse(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
     }
@@ -119,11 +130,13 @@ public class AlarmReceiverTest {
                 JobCreator.create(application).setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY).build(),
                 AlarmScheduler.TAG));
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertTrue(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
 
         DeviceTestUtils.setNetworkInfo(application, true, false, false);
         service.startCommand(0, 0);
+        DeviceTestUtils.runBackgroundThread();
 
         assertFalse(DeviceTestUtils.isComponentEnabled(packageManager, receiver));
     }
@@ -136,16 +149,19 @@ public class AlarmReceiverTest {
         assertEquals(shadowOf(application).getNextStartedService().getComponent().getClassName(),
                      AlarmJobService.class.getName());
 
+        AlarmJobService.resetStartPending();
         new AlarmReceiver.BatteryReceiver().onReceive(application, new Intent(Intent.ACTION_POWER_CONNECTED));
 
         assertEquals(shadowOf(application).getNextStartedService().getComponent().getClassName(),
                      AlarmJobService.class.getName());
 
+        AlarmJobService.resetStartPending();
         new AlarmReceiver.StorageReceiver().onReceive(application, new Intent(Intent.ACTION_DEVICE_STORAGE_LOW));
 
         assertEquals(shadowOf(application).getNextStartedService().getComponent().getClassName(),
                      AlarmJobService.class.getName());
 
+        AlarmJobService.resetStartPending();
         new AlarmReceiver.ConnectivityReceiver().onReceive(
                 application, new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
 
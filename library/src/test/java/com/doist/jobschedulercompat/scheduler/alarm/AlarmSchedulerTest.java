@@ -1,6 +1,7 @@
 package com.doist.jobschedulercompat.scheduler.alarm;
 
 import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.JobScheduler;
 import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.job.JobStore;
 import com.doist.jobschedulercompat.util.JobCreator;
@@ -23,6 +24,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.robolectric.Shadows.shadowOf;
 
@@ -37,6 +39,7 @@ public class AlarmSchedulerTest {
     @Before
     public void setup() {
         application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
         job = JobCreator.create(application, 2000)
                         .addTriggerContentUri(new JobInfo.TriggerContentUri(Uri.parse("doist.com"), 0))
                         .setMinimumLatency(TimeUnit.HOURS.toMillis(1) /* Random constraint. */)
@@ -83,12 +86,26 @@ public class AlarmSchedulerTest {
         assertEquals(shadowOf(application).getNextStartedService().getComponent().getClassName(),
                      AlarmJobService.class.getName());
 
+        AlarmJobService.resetStartPending();
         scheduler.onJobCompleted(0, true);
 
         assertEquals(shadowOf(application).getNextStartedService().getComponent().getClassName(),
                      AlarmJobService.class.getName());
     }
 
+    @Test
+    public void testBurstRunsServiceOnce() {
+        for (int i = 0; i < 50; i++) {
+            scheduler.schedule(JobCreator.create(application, 2000)
+                                         .setMinimumLatency(TimeUnit.HOURS.toMillis(1))
+                                         .build());
+        }
+
+        assertEquals(shadowOf(application).getNextStartedService().getComponent().getClassName(),
+                     AlarmJobService.class.getName());
+        assertNull(shadowOf(application).getNextStartedService());
+    }
+
     @Test
     public void testJobRescheduledPassesUriAuthorityForward() {
         Uri changedUri = job.getTriggerContentUris()[0].getUri();
@@ -97,9 +114,12 @@ public class AlarmSchedulerTest {
         JobStatus failedJobStatus = new JobStatus(job, AlarmScheduler.TAG, 0, 0);
         failedJobStatus.changedUris = Collections.singleton(changedUri);
         failedJobStatus.changedAuthorities = Collections.singleton(changedAuthority);
-        JobStatus newJobStatus = new JobStatus(job, AlarmScheduler.TAG, 0, 0);
-        scheduler.onJobRescheduled(newJobStatus, failedJobStatus);
+        synchronized (JobStore.LOCK) {
+            jobStore.add(failedJobStatus);
+        }
+        JobScheduler.get(application).onJobCompleted(job.getId(), true);
 
+        JobStatus newJobStatus = JobScheduler.get(application).getJob(job.getId());
         assertThat(newJobStatus.changedUris, hasItem(changedUri));
         assertThat(newJobStatus.changedAuthorities, hasItem(changedAuthority));
     }
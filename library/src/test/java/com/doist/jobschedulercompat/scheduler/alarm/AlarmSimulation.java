@@ -0,0 +1,335 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.job.JobStatus;
+import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.util.BackgroundThread;
+import com.doist.jobschedulercompat.util.DeviceTestUtils;
+
+import org.robolectric.Robolectric;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.SparseLongArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Deterministic simulation of alarm-based scheduling, driving {@link JobScheduler} and {@link AlarmJobService} on
+ * Robolectric's virtual clock, so that days of scheduling can be evaluated in seconds.
+ *
+ * Jobs and device state changes (charging, network, idle, storage) are scripted at times relative to the start of the
+ * simulation. Time then jumps from one event to the next, whether scripted or an alarm set by the library. Alarms are
+ * delivered at the start of their window, and the manifest receivers the library enabled are notified of device state
+ * changes, as the system would. Jobs are expected to finish right away, as with {@code NoopJobService}.
+ *
+ * Simulations share the library's singletons, so only one should run per test.
+ */
+class AlarmSimulation {
+    /** Upper bound on passes while settling, to fail instead of looping if the library never settles. */
+    private static final int MAX_SETTLE_ITERATIONS = 10000;
+
+    private final Application application;
+    private final JobScheduler jobScheduler;
+    private final JobStore jobStore;
+    private final AlarmManager alarmManager;
+    private final ShadowAlarmManager shadowAlarmManager;
+    private final ServiceController<AlarmJobService> service;
+    private final long startElapsed;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private int eventCount;
+    private int startId;
+
+    /** Deadline of each scheduled job, removed once it starts. */
+    private final SparseLongArray pendingDeadlines = new SparseLongArray();
+    private final List<Long> startLatencies = new ArrayList<>();
+    private int jobsScheduled;
+    private int jobsStarted;
+    private int passes;
+    private int wakeups;
+    private int missedDeadlines;
+    private long maxLateness;
+    private long wakeLockTime;
+
+    AlarmSimulation(Application application) {
+        this.application = application;
+        jobScheduler = JobScheduler.get(application);
+        jobStore = JobStore.get(application);
+        alarmManager = (AlarmManager) application.getSystemService(Context.ALARM_SERVICE);
+        shadowAlarmManager = shadowOf(alarmManager);
+        service = Robolectric.buildService(AlarmJobService.class).create();
+        startElapsed = SystemClock.elapsedRealtime();
+        jobScheduler.setMetrics(new Metrics());
+    }
+
+    /**
+     * Schedules {@code job} through {@link JobScheduler} at {@code atMillis}.
+     */
+    void schedule(long atMillis, final JobInfo job) {
+        post(atMillis, new Runnable() {
+            @Override
+            public void run() {
+                jobScheduler.schedule(job);
+                JobStatus jobStatus = jobStore.getJob(job.getId());
+                jobsScheduled++;
+                pendingDeadlines.put(job.getId(), jobStatus.hasDeadlineConstraint()
+                                                  ? jobStatus.getLatestRunTimeElapsed()
+                                                  : JobStatus.NO_LATEST_RUNTIME);
+            }
+        });
+    }
+
+    void setCharging(long atMillis, final boolean charging) {
+        post(atMillis, new Runnable() {
+            @Override
+            public void run() {
+                DeviceTestUtils.setCharging(application, charging);
+                notifyReceiver(new AlarmReceiver.BatteryReceiver());
+            }
+        });
+    }
+
+    void setNetwork(long atMillis, final boolean connected, final boolean wifi) {
+        post(atMillis, new Runnable() {
+            @Override
+            public void run() {
+                DeviceTestUtils.setNetworkInfo(application, connected, false, wifi);
+                notifyReceiver(new AlarmReceiver.ConnectivityReceiver());
+            }
+        });
+    }
+
+    void setStorageNotLow(long atMillis, final boolean storageNotLow) {
+        post(atMillis, new Runnable() {
+            @Override
+            public void run() {
+                DeviceTestUtils.setStorageNotLow(application, storageNotLow);
+                notifyReceiver(new AlarmReceiver.StorageReceiver());
+            }
+        });
+    }
+
+    /**
+     * Sets whether the device is idle at {@code atMillis}. There's no receiver for it, the library relies on alarms.
+     */
+    void setDeviceIdle(long atMillis, final boolean idle) {
+        post(atMillis, new Runnable() {
+            @Override
+            public void run() {
+                DeviceTestUtils.setDeviceIdle(application, idle);
+            }
+        });
+    }
+
+    /**
+     * Runs the simulation for {@code durationMillis}, delivering scripted events and alarms in order.
+     */
+    Report run(long durationMillis) {
+        long endElapsed = startElapsed + durationMillis;
+        // Alarms are delivered at most once per instant, so that one set in the past can't stall the clock.
+        long lastAlarmElapsed = -1L;
+        settle();
+        while (true) {
+            long nowElapsed = SystemClock.elapsedRealtime();
+            long nextElapsed = endElapsed;
+            if (!events.isEmpty()) {
+                nextElapsed = Math.min(nextElapsed, events.peek().timeElapsed);
+            }
+            ShadowAlarmManager.ScheduledAlarm alarm = getNextAlarm();
+            if (alarm != null) {
+                nextElapsed = Math.min(nextElapsed, Math.max(alarm.triggerAtTime, lastAlarmElapsed + 1));
+            }
+            if (nextElapsed > nowElapsed) {
+                DeviceTestUtils.advanceTime(nextElapsed - nowElapsed);
+                nowElapsed = nextElapsed;
+            }
+            if (nowElapsed >= endElapsed) {
+                break;
+            }
+
+            while (!events.isEmpty() && events.peek().timeElapsed <= nowElapsed) {
+                events.poll().action.run();
+            }
+            alarm = getNextAlarm();
+            if (alarm != null && alarm.triggerAtTime <= nowElapsed && nowElapsed > lastAlarmElapsed) {
+                lastAlarmElapsed = nowElapsed;
+                alarmManager.cancel(alarm.operation);
+                if (alarm.type == AlarmManager.ELAPSED_REALTIME_WAKEUP || alarm.type == AlarmManager.RTC_WAKEUP) {
+                    wakeups++;
+                }
+                new AlarmReceiver().onReceive(application, new Intent(application, AlarmReceiver.class));
+            }
+            settle();
+        }
+        settle();
+
+        jobScheduler.setMetrics(null);
+        for (int i = 0; i < pendingDeadlines.size(); i++) {
+            if (pendingDeadlines.valueAt(i) < endElapsed) {
+                missedDeadlines++;
+            }
+        }
+        return new Report();
+    }
+
+    private void post(long atMillis, Runnable action) {
+        events.add(new Event(startElapsed + atMillis, eventCount++, action));
+    }
+
+    /**
+     * Notifies {@code receiver} of a device state change, if the library enabled it in the manifest.
+     */
+    private void notifyReceiver(BroadcastReceiver receiver) {
+        ComponentName component = new ComponentName(application, receiver.getClass());
+        if (DeviceTestUtils.isComponentEnabled(application.getPackageManager(), component)) {
+            receiver.onReceive(application, new Intent());
+        }
+    }
+
+    private ShadowAlarmManager.ScheduledAlarm getNextAlarm() {
+        ShadowAlarmManager.ScheduledAlarm next = null;
+        for (ShadowAlarmManager.ScheduledAlarm alarm : shadowAlarmManager.getScheduledAlarms()) {
+            if (next == null || alarm.triggerAtTime < next.triggerAtTime) {
+                next = alarm;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Delivers service starts and runs pending tasks on the main and background threads until none are left, without
+     * advancing the clock.
+     */
+    private void settle() {
+        ShadowApplication shadowApplication = shadowOf(application);
+        ShadowLooper backgroundLooper = shadowOf(BackgroundThread.get().getLooper());
+        ShadowLooper mainLooper = shadowOf(application.getMainLooper());
+        for (int i = 0; i < MAX_SETTLE_ITERATIONS; i++) {
+            boolean busy = false;
+            Intent intent;
+            while ((intent = shadowApplication.getNextStartedService()) != null) {
+                if (AlarmJobService.class.getName().equals(intent.getComponent().getClassName())) {
+                    passes++;
+                    service.startCommand(0, ++startId);
+                }
+                busy = true;
+            }
+            if (backgroundLooper.getScheduler().areAnyRunnable()) {
+                backgroundLooper.idle();
+                busy = true;
+            }
+            if (mainLooper.getScheduler().areAnyRunnable()) {
+                mainLooper.idle();
+                busy = true;
+            }
+            if (!busy) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Simulation didn't settle after " + MAX_SETTLE_ITERATIONS + " iterations");
+    }
+
+    private static long percentile(List<Long> sortedValues, int percentile) {
+        if (sortedValues.isEmpty()) {
+            return 0L;
+        }
+        int index = (int) Math.ceil(percentile / 100d * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(index, 0));
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final long timeElapsed;
+        /** Breaks ties between events at the same time, in the order they were scripted. */
+        private final int sequence;
+        private final Runnable action;
+
+        private Event(long timeElapsed, int sequence, Runnable action) {
+            this.timeElapsed = timeElapsed;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (timeElapsed != other.timeElapsed) {
+                return timeElapsed < other.timeElapsed ? -1 : 1;
+            }
+            return sequence - other.sequence;
+        }
+    }
+
+    private class Metrics extends JobSchedulerMetrics {
+        @Override
+        public void onJobStarted(int jobId, String schedulerTag, long readyDurationMillis) {
+            jobsStarted++;
+            startLatencies.add(readyDurationMillis);
+            int index = pendingDeadlines.indexOfKey(jobId);
+            if (index >= 0) {
+                long lateness = SystemClock.elapsedRealtime() - pendingDeadlines.valueAt(index);
+                if (lateness > 0) {
+                    missedDeadlines++;
+                    maxLateness = Math.max(maxLateness, lateness);
+                }
+                pendingDeadlines.removeAt(index);
+            }
+        }
+
+        @Override
+        public void onWakeLockReleased(int jobId, long durationMillis) {
+            wakeLockTime += durationMillis;
+        }
+    }
+
+    /**
+     * Outcome of a simulation. Latencies are measured from when each job became ready to when it started.
+     */
+    class Report {
+        final int jobsScheduled = AlarmSimulation.this.jobsScheduled;
+        final int jobsStarted = AlarmSimulation.this.jobsStarted;
+        final int passes = AlarmSimulation.this.passes;
+        final int wakeups = AlarmSimulation.this.wakeups;
+        /** Jobs that started after their deadline, or hadn't started when it passed. */
+        final int missedDeadlines = AlarmSimulation.this.missedDeadlines;
+        final long maxLateness = AlarmSimulation.this.maxLateness;
+        final long wakeLockTime = AlarmSimulation.this.wakeLockTime;
+        final long medianStartLatency;
+        final long p95StartLatency;
+        final long maxStartLatency;
+
+        private Report() {
+            List<Long> latencies = new ArrayList<>(startLatencies);
+            Collections.sort(latencies);
+            medianStartLatency = percentile(latencies, 50);
+            p95StartLatency = percentile(latencies, 95);
+            maxStartLatency = percentile(latencies, 100);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.US,
+                    "jobs=%d/%d passes=%d wakeups=%d missedDeadlines=%d maxLateness=%dms wakeLockTime=%dms "
+                            + "startLatency(p50/p95/max)=%d/%d/%dms",
+                    jobsStarted, jobsScheduled, passes, wakeups, missedDeadlines, maxLateness, wakeLockTime,
+                    medianStartLatency, p95StartLatency, maxStartLatency);
+        }
+    }
+}
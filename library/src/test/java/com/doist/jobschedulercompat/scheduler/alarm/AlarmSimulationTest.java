@@ -0,0 +1,150 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.job.JobHistory;
+import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.job.JobTimeouts;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
+import com.doist.jobschedulercompat.util.JobCreator;
+import com.doist.jobschedulercompat.util.ShadowGoogleApiAvailability;
+import com.doist.jobschedulercompat.util.ShadowNetworkInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.app.Application;
+import android.os.Build;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT, shadows = {ShadowNetworkInfo.class, ShadowGoogleApiAvailability.class})
+public class AlarmSimulationTest {
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private Application application;
+    private AlarmSimulation simulation;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        JobHistory.reset();
+        simulation = new AlarmSimulation(application);
+        simulation.setCharging(0, false);
+        simulation.setNetwork(0, true, true);
+        simulation.setStorageNotLow(0, true);
+        simulation.setDeviceIdle(0, false);
+    }
+
+    @After
+    public void teardown() {
+        JobServiceConnections.reset();
+        JobTimeouts.reset();
+        JobHistory.reset();
+        synchronized (JobStore.LOCK) {
+            JobStore.get(application).clear();
+        }
+    }
+
+    @Test
+    public void testJobRunsOnceConstraintIsMet() {
+        simulation.schedule(0, JobCreator.create(application).setRequiresCharging(true).build());
+        simulation.setCharging(2 * HOUR_MS, true);
+
+        AlarmSimulation.Report report = simulation.run(3 * HOUR_MS);
+
+        assertEquals(1, report.jobsStarted);
+        assertEquals(0, report.wakeups);
+    }
+
+    @Test
+    public void testOverlappingWindowsShareWakeups() {
+        int jobCount = 100;
+        for (int i = 0; i < jobCount; i++) {
+            long latency = TimeUnit.MINUTES.toMillis(i);
+            simulation.schedule(0, JobCreator.create(application)
+                                             .setMinimumLatency(latency)
+                                             .setOverrideDeadline(latency + HOUR_MS)
+                                             .build());
+        }
+
+        AlarmSimulation.Report report = simulation.run(4 * HOUR_MS);
+
+        assertEquals(jobCount, report.jobsStarted);
+        assertEquals(0, report.missedDeadlines);
+        assertTrue(report.toString(), report.wakeups < jobCount / 10);
+    }
+
+    @Test
+    public void testDeadlinesAreMetUnderDailyRoutine() {
+        // Nights charging on wifi and idle, days on the go with mobile data.
+        int days = 14;
+        for (int day = 0; day < days; day++) {
+            long morning = day * DAY_MS + 7 * HOUR_MS;
+            simulation.setCharging(morning, false);
+            simulation.setNetwork(morning, true, false);
+            simulation.setDeviceIdle(morning, false);
+            long night = day * DAY_MS + 23 * HOUR_MS;
+            simulation.setCharging(night, true);
+            simulation.setNetwork(night, true, true);
+            simulation.setDeviceIdle(night, true);
+        }
+
+        // Thousands of jobs with assorted constraints, latencies and deadlines, all due before the simulation ends.
+        Random random = new Random(42);
+        int jobCount = 2000;
+        int deadlineWakeups = 0;
+        for (int i = 0; i < jobCount; i++) {
+            long latency = (long) (random.nextDouble() * 2 * HOUR_MS);
+            long deadline = latency + HOUR_MS + (long) (random.nextDouble() * 3 * HOUR_MS);
+            JobInfo.Builder builder = JobCreator.create(application)
+                                                .setMinimumLatency(latency)
+                                                .setOverrideDeadline(deadline);
+            int constraint = random.nextInt(5);
+            switch (constraint) {
+                case 0:
+                    builder.setRequiresCharging(true);
+                    break;
+                case 1:
+                    builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+                    break;
+                case 2:
+                    builder.setRequiresDeviceIdle(true);
+                    break;
+                case 3:
+                    builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY).setRequiresStorageNotLow(true);
+                    break;
+                default:
+                    break;
+            }
+            long scheduleAt = (long) (random.nextDouble() * (days - 1) * DAY_MS);
+            simulation.schedule(scheduleAt, builder.build());
+
+            // Charging, unmetered and idle jobs might only be able to run at their deadline, unless it's deep at night.
+            long deadlineAt = scheduleAt + deadline;
+            long deadlineHour = (deadlineAt % DAY_MS) / HOUR_MS;
+            if (constraint <= 2 && (deadlineAt < DAY_MS || deadlineHour < 1 || deadlineHour >= 7)) {
+                deadlineWakeups++;
+            }
+        }
+
+        AlarmSimulation.Report report = simulation.run(days * DAY_MS);
+
+        assertEquals(jobCount, report.jobsScheduled);
+        assertEquals(jobCount, report.jobsStarted);
+        assertEquals(0, report.missedDeadlines);
+        // Other jobs have windows of an hour or more, so waking up about hourly is enough for all of them.
+        assertTrue(report.toString(), report.wakeups < deadlineWakeups + days * 24);
+    }
+}
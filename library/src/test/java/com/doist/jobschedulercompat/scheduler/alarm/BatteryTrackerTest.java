@@ -0,0 +1,142 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+import com.doist.jobschedulercompat.util.DeviceTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.BatteryManager;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT)
+public class BatteryTrackerTest {
+    private Application application;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
+        BatteryTracker.reset();
+    }
+
+    @After
+    public void teardown() {
+        BatteryTracker.reset();
+        JobSchedulerSettings.setBatteryThresholds(
+                JobSchedulerSettings.DEFAULT_BATTERY_LOW_PERCENTAGE,
+                JobSchedulerSettings.DEFAULT_BATTERY_OKAY_PERCENTAGE);
+    }
+
+    @Test
+    public void testPercentage() {
+        setBattery(false, 40, 50);
+        BatteryTracker tracker = BatteryTracker.get(application);
+
+        assertEquals(80, tracker.getBatteryPercentage());
+        assertTrue(tracker.isBatteryNotLow());
+        assertFalse(tracker.isCharging());
+    }
+
+    @Test
+    public void testHysteresis() {
+        BatteryTracker tracker = BatteryTracker.get(application);
+
+        setBattery(false, 16, 100);
+        assertTrue(tracker.isBatteryNotLow());
+
+        setBattery(false, 15, 100);
+        assertFalse(tracker.isBatteryNotLow());
+
+        // Stays low until the okay threshold.
+        setBattery(false, 19, 100);
+        assertFalse(tracker.isBatteryNotLow());
+
+        setBattery(false, 20, 100);
+        assertTrue(tracker.isBatteryNotLow());
+
+        // Stays okay until the low threshold.
+        setBattery(false, 16, 100);
+        assertTrue(tracker.isBatteryNotLow());
+
+        // Charging is never low.
+        setBattery(true, 5, 100);
+        assertTrue(tracker.isBatteryNotLow());
+    }
+
+    @Test
+    public void testCustomThresholds() {
+        JobSchedulerSettings.setBatteryThresholds(30, 50);
+        BatteryTracker tracker = BatteryTracker.get(application);
+
+        setBattery(false, 30, 100);
+        assertFalse(tracker.isBatteryNotLow());
+
+        setBattery(false, 49, 100);
+        assertFalse(tracker.isBatteryNotLow());
+
+        setBattery(false, 50, 100);
+        assertTrue(tracker.isBatteryNotLow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThresholds() {
+        JobSchedulerSettings.setBatteryThresholds(50, 30);
+    }
+
+    @Test
+    public void testTrackingStartsServiceOnTransitions() {
+        setBattery(false, 50, 100);
+        BatteryTracker tracker = BatteryTracker.get(application);
+        tracker.startTracking();
+
+        // Irrelevant changes don't start the service.
+        setBattery(false, 40, 100);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertNull(shadowOf(application).getNextStartedService());
+
+        setBattery(false, 10, 100);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertFalse(tracker.isBatteryNotLow());
+        Intent intent = shadowOf(application).getNextStartedService();
+        assertNotNull(intent);
+        assertEquals(new ComponentName(application, AlarmJobService.class), intent.getComponent());
+
+        AlarmJobService.resetStartPending();
+        setBattery(true, 10, 100);
+        DeviceTestUtils.runBackgroundThread();
+
+        assertTrue(tracker.isCharging());
+        assertNotNull(shadowOf(application).getNextStartedService());
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setBattery(boolean charging, int level, int scale) {
+        Intent intent = new Intent(Intent.ACTION_BATTERY_CHANGED)
+                .putExtra(BatteryManager.EXTRA_LEVEL, level)
+                .putExtra(BatteryManager.EXTRA_SCALE, scale);
+        if (charging) {
+            intent.putExtra(BatteryManager.EXTRA_PLUGGED, BatteryManager.BATTERY_PLUGGED_AC);
+        }
+        application.sendStickyBroadcast(intent);
+    }
+}
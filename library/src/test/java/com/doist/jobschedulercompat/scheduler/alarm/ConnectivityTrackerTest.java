@@ -0,0 +1,106 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.util.DeviceTestUtils;
+import com.doist.jobschedulercompat.util.ShadowNetworkInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT, shadows = {ShadowNetworkInfo.class})
+public class ConnectivityTrackerTest {
+    private Application application;
+    private ConnectivityManager manager;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
+        manager = (ConnectivityManager) application.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @After
+    public void teardown() {
+        ConnectivityTracker.reset();
+    }
+
+    @Test
+    public void testStateWithoutTracking() {
+        DeviceTestUtils.setNetworkInfo(application, true, true, false);
+        ConnectivityTracker tracker = ConnectivityTracker.get(application);
+
+        assertFalse(tracker.isTracking());
+        assertTrue(tracker.getState().isConnected());
+        assertFalse(tracker.getState().isNotRoaming());
+
+        DeviceTestUtils.setNetworkInfo(application, false, false, false);
+        tracker = ConnectivityTracker.get(application);
+
+        assertFalse(tracker.getState().isConnected());
+        assertFalse(tracker.getState().isUnmetered());
+        assertFalse(tracker.getState().isMetered());
+        assertFalse(tracker.getState().isNotRoaming());
+    }
+
+    @Test
+    public void testTrackingUpdatesOnRelevantChanges() {
+        DeviceTestUtils.setNetworkInfo(application, true, false, true);
+        ConnectivityTracker tracker = ConnectivityTracker.get(application);
+        tracker.startTracking();
+
+        assertTrue(tracker.isTracking());
+        assertTrue(tracker.getState().isConnected());
+
+        // Tracked state is kept until a broadcast arrives.
+        setActiveNetworkInfo(false);
+
+        assertTrue(tracker.getState().isConnected());
+
+        application.sendBroadcast(new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        DeviceTestUtils.runBackgroundThread();
+
+        assertFalse(tracker.getState().isConnected());
+        Intent intent = shadowOf(application).getNextStartedService();
+        assertNotNull(intent);
+        assertEquals(new ComponentName(application, AlarmJobService.class), intent.getComponent());
+
+        // Irrelevant changes don't start the service.
+        application.sendBroadcast(new Intent(ConnectivityManager.CONNECTIVITY_ACTION));
+        DeviceTestUtils.runBackgroundThread();
+
+        assertNull(shadowOf(application).getNextStartedService());
+
+        tracker.stopTracking();
+
+        assertFalse(tracker.isTracking());
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setActiveNetworkInfo(boolean isConnected) {
+        NetworkInfo.DetailedState detailedState =
+                isConnected ? NetworkInfo.DetailedState.CONNECTED : NetworkInfo.DetailedState.DISCONNECTED;
+        shadowOf(manager).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(
+                detailedState, ConnectivityManager.TYPE_WIFI, 0, isConnected, isConnected, false));
+    }
+}
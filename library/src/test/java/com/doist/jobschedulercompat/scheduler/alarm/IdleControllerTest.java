@@ -0,0 +1,114 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.util.DeviceTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT)
+public class IdleControllerTest {
+    private Application application;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
+    }
+
+    @After
+    public void teardown() {
+        IdleController.reset();
+    }
+
+    @Test
+    public void testScreenOffIsNotIdleUntilThreshold() {
+        setScreenOn(false);
+        IdleController controller = IdleController.get(application);
+        controller.setLastActiveTime(System.currentTimeMillis());
+
+        assertFalse(controller.isIdle());
+        assertEquals(SystemClock.elapsedRealtime() + IdleController.INACTIVITY_IDLE_THRESHOLD,
+                     controller.getIdleTimeElapsed());
+
+        controller.setLastActiveTime(System.currentTimeMillis() - IdleController.INACTIVITY_IDLE_THRESHOLD);
+
+        assertTrue(controller.isIdle());
+        assertEquals(SystemClock.elapsedRealtime(), controller.getIdleTimeElapsed());
+    }
+
+    @Test
+    public void testScreenOnIsNeverIdle() {
+        setScreenOn(true);
+        IdleController controller = IdleController.get(application);
+        controller.setLastActiveTime(0L);
+
+        assertFalse(controller.isIdle());
+        assertEquals(SystemClock.elapsedRealtime() + IdleController.INACTIVITY_IDLE_THRESHOLD,
+                     controller.getIdleTimeElapsed());
+    }
+
+    @Test
+    public void testLastActiveTimeIsPersisted() {
+        setScreenOn(false);
+        IdleController.get(application).setLastActiveTime(0L);
+        IdleController.reset();
+
+        assertTrue(IdleController.get(application).isIdle());
+    }
+
+    @Test
+    public void testTrackingStartsServiceOnTransitions() {
+        setScreenOn(false);
+        IdleController controller = IdleController.get(application);
+        controller.setLastActiveTime(0L);
+        controller.startTracking();
+
+        assertTrue(controller.isIdle());
+
+        application.sendBroadcast(new Intent(Intent.ACTION_SCREEN_ON));
+        DeviceTestUtils.runBackgroundThread();
+
+        assertFalse(controller.isIdle());
+        Intent intent = shadowOf(application).getNextStartedService();
+        assertNotNull(intent);
+        assertEquals(new ComponentName(application, AlarmJobService.class), intent.getComponent());
+
+        // Desk docks count as inactive, as with JobScheduler.
+        AlarmJobService.resetStartPending();
+        application.sendBroadcast(new Intent(Intent.ACTION_DOCK_EVENT)
+                                          .putExtra(Intent.EXTRA_DOCK_STATE, Intent.EXTRA_DOCK_STATE_DESK));
+        DeviceTestUtils.runBackgroundThread();
+
+        assertFalse(controller.isIdle());
+        assertNotNull(shadowOf(application).getNextStartedService());
+        assertEquals(SystemClock.elapsedRealtime() + IdleController.INACTIVITY_IDLE_THRESHOLD,
+                     controller.getIdleTimeElapsed());
+    }
+
+    private void setScreenOn(boolean screenOn) {
+        PowerManager manager = (PowerManager) application.getSystemService(Context.POWER_SERVICE);
+        shadowOf(manager).setIsInteractive(screenOn);
+        shadowOf(manager).setIsScreenOn(screenOn);
+    }
+}
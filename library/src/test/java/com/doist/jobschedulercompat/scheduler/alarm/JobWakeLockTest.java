@@ -0,0 +1,96 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+import com.doist.jobschedulercompat.util.DeviceTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.app.Application;
+import android.os.Build;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT)
+public class JobWakeLockTest {
+    private Application application;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        JobWakeLock.resetHoldTimes();
+    }
+
+    @After
+    public void teardown() {
+        JobWakeLock.resetHoldTimes();
+        JobSchedulerSettings.setMaxExecutionTime(JobSchedulerSettings.DEFAULT_MAX_EXECUTION_TIME);
+    }
+
+    @Test
+    public void testJobsHoldSeparateWakeLocks() {
+        JobWakeLock wakeLock1 = new JobWakeLock(application, 1);
+        JobWakeLock wakeLock2 = new JobWakeLock(application, 2);
+        wakeLock1.acquire();
+        wakeLock2.acquire();
+
+        assertTrue(wakeLock1.isHeld());
+        assertTrue(wakeLock2.isHeld());
+
+        wakeLock1.release();
+
+        assertFalse(wakeLock1.isHeld());
+        assertTrue(wakeLock2.isHeld());
+
+        // Releasing twice is a no-op.
+        wakeLock1.release();
+
+        assertTrue(wakeLock2.isHeld());
+    }
+
+    @Test
+    public void testHoldTimeAccumulates() {
+        JobWakeLock wakeLock = new JobWakeLock(application, 1);
+        wakeLock.acquire();
+        DeviceTestUtils.advanceTime(1000);
+        wakeLock.release();
+
+        assertEquals(1000, JobWakeLock.getHoldTime(1));
+
+        wakeLock.acquire();
+        DeviceTestUtils.advanceTime(500);
+        wakeLock.release();
+
+        assertEquals(1500, JobWakeLock.getHoldTime(1));
+        assertEquals(1500, JobScheduler.get(application).getWakeLockHoldTime(1));
+        assertEquals(0, JobWakeLock.getHoldTime(2));
+    }
+
+    @Test
+    public void testHoldTimeIsLimitedByTimeout() {
+        JobSchedulerSettings.setMaxExecutionTime(1000);
+        JobWakeLock wakeLock = new JobWakeLock(application, 1);
+        wakeLock.acquire();
+        DeviceTestUtils.advanceTime(TimeUnit.HOURS.toMillis(1));
+        wakeLock.release();
+
+        assertEquals(1000 + JobWakeLock.TIMEOUT_SLOP, JobWakeLock.getHoldTime(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxExecutionTime() {
+        JobSchedulerSettings.setMaxExecutionTime(0);
+    }
+}
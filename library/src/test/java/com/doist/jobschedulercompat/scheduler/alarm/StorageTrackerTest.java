@@ -0,0 +1,125 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobSchedulerSettings;
+import com.doist.jobschedulercompat.util.DeviceTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowStatFs;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT)
+public class StorageTrackerTest {
+    private static final int MB_BLOCKS = 1024 * 1024 / ShadowStatFs.BLOCK_SIZE;
+
+    private Application application;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        AlarmJobService.resetStartPending();
+        StorageTracker.reset();
+    }
+
+    @After
+    public void teardown() {
+        StorageTracker.reset();
+        JobSchedulerSettings.setStorageLowThreshold(
+                JobSchedulerSettings.DEFAULT_STORAGE_LOW_PERCENTAGE,
+                JobSchedulerSettings.DEFAULT_STORAGE_LOW_MAX_BYTES);
+    }
+
+    @Test
+    public void testThresholdIsLowestOfPercentageAndBytes() {
+        // 10% of 1GB is below 500MB.
+        setStorage(1024, 103);
+        assertTrue(StorageTracker.get(application).isStorageNotLow());
+        StorageTracker.reset();
+
+        setStorage(1024, 102);
+        assertFalse(StorageTracker.get(application).isStorageNotLow());
+        StorageTracker.reset();
+
+        // 500MB is below 10% of 10GB.
+        setStorage(10 * 1024, 500);
+        assertTrue(StorageTracker.get(application).isStorageNotLow());
+        StorageTracker.reset();
+
+        setStorage(10 * 1024, 499);
+        assertFalse(StorageTracker.get(application).isStorageNotLow());
+    }
+
+    @Test
+    public void testCustomThreshold() {
+        JobSchedulerSettings.setStorageLowThreshold(50, Long.MAX_VALUE);
+        setStorage(1024, 511);
+
+        assertFalse(StorageTracker.get(application).isStorageNotLow());
+    }
+
+    @Test
+    public void testSamplesAreCached() {
+        StorageTracker tracker = StorageTracker.get(application);
+        setStorage(1024, 900);
+
+        assertTrue(tracker.isStorageNotLow());
+        assertEquals(900L * 1024 * 1024, tracker.getAvailableBytes());
+
+        setStorage(1024, 10);
+
+        assertTrue(tracker.isStorageNotLow());
+
+        DeviceTestUtils.advanceTime(StorageTracker.SAMPLE_INTERVAL);
+
+        assertFalse(tracker.isStorageNotLow());
+
+        setStorage(1024, 900);
+        tracker.invalidate();
+
+        assertTrue(tracker.isStorageNotLow());
+    }
+
+    @Test
+    public void testTrackingStartsServiceOnBandChanges() {
+        StorageTracker tracker = StorageTracker.get(application);
+        setStorage(1024, 900);
+        tracker.isStorageNotLow();
+        tracker.startTracking();
+
+        // Changes within the same band don't start the service.
+        setStorage(1024, 800);
+        DeviceTestUtils.advanceTime(StorageTracker.SAMPLE_INTERVAL);
+
+        assertNull(shadowOf(application).getNextStartedService());
+
+        setStorage(1024, 10);
+        DeviceTestUtils.advanceTime(StorageTracker.SAMPLE_INTERVAL);
+
+        Intent intent = shadowOf(application).getNextStartedService();
+        assertNotNull(intent);
+        assertEquals(new ComponentName(application, AlarmJobService.class), intent.getComponent());
+    }
+
+    private void setStorage(int totalMb, int availableMb) {
+        ShadowStatFs.registerStats(
+                application.getFilesDir(), totalMb * MB_BLOCKS, availableMb * MB_BLOCKS, availableMb * MB_BLOCKS);
+    }
+}
@@ -0,0 +1,165 @@
+package com.doist.jobschedulercompat.scheduler.alarm;
+
+import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.JobScheduler;
+import com.doist.jobschedulercompat.JobSchedulerMetrics;
+import com.doist.jobschedulercompat.job.JobStatus;
+import com.doist.jobschedulercompat.util.JobCreator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.KITKAT)
+public class WakeupStrategyTest {
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private Application application;
+    private long nowElapsed;
+
+    @Before
+    public void setup() {
+        application = ApplicationProvider.getApplicationContext();
+        nowElapsed = SystemClock.elapsedRealtime();
+    }
+
+    @After
+    public void teardown() {
+        JobScheduler.get(application).setMetrics(null);
+    }
+
+    @Test
+    public void testNoJobsNoWakeup() {
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+
+        assertNull(strategy.getNextWakeup());
+        assertEquals(JobStatus.NO_LATEST_RUNTIME, strategy.getNextDeadline());
+    }
+
+    @Test
+    public void testOverlappingWindowsAreAligned() {
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+        strategy.addJob(createJobStatus(HOUR_MS, 3 * HOUR_MS));
+        strategy.addJob(createJobStatus(2 * HOUR_MS, 4 * HOUR_MS));
+
+        WakeupStrategy.Window wakeup = strategy.getNextWakeup();
+        assertNotNull(wakeup);
+        assertEquals(nowElapsed + 2 * HOUR_MS, wakeup.start);
+        assertEquals(nowElapsed + 3 * HOUR_MS, wakeup.end);
+        assertTrue(wakeup.deadline);
+        assertEquals(nowElapsed + 3 * HOUR_MS, strategy.getNextDeadline());
+    }
+
+    @Test
+    public void testDisjointWindowsAreNotAligned() {
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+        strategy.addJob(createJobStatus(HOUR_MS, 2 * HOUR_MS));
+        strategy.addJob(createJobStatus(3 * HOUR_MS, 4 * HOUR_MS));
+
+        WakeupStrategy.Window wakeup = strategy.getNextWakeup();
+        assertNotNull(wakeup);
+        assertEquals(nowElapsed + HOUR_MS, wakeup.start);
+        assertEquals(nowElapsed + 2 * HOUR_MS, wakeup.end);
+    }
+
+    @Test
+    public void testPlanUsesMinimumWakeups() {
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+        strategy.addJob(createJobStatus(HOUR_MS, 3 * HOUR_MS));
+        strategy.addJob(createJobStatus(5 * HOUR_MS, 6 * HOUR_MS));
+        strategy.addJob(createJobStatus(2 * HOUR_MS, 4 * HOUR_MS));
+        strategy.addJob(createJobStatus(5 * HOUR_MS + 1, 7 * HOUR_MS));
+        strategy.addJob(createJobStatus(2 * HOUR_MS, 8 * HOUR_MS));
+
+        List<WakeupStrategy.Window> plan = strategy.plan();
+        assertEquals(2, plan.size());
+        assertEquals(nowElapsed + 2 * HOUR_MS, plan.get(0).start);
+        assertEquals(nowElapsed + 3 * HOUR_MS, plan.get(0).end);
+        assertEquals(nowElapsed + 5 * HOUR_MS + 1, plan.get(1).start);
+        assertEquals(nowElapsed + 6 * HOUR_MS, plan.get(1).end);
+        assertEquals(3, strategy.getWakeupsSaved());
+    }
+
+    @Test
+    public void testDelayWithoutDeadlineIsFlexible() {
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+        strategy.addJob(createJobStatus(2 * HOUR_MS, 0));
+
+        WakeupStrategy.Window wakeup = strategy.getNextWakeup();
+        assertNotNull(wakeup);
+        assertEquals(nowElapsed + 2 * HOUR_MS, wakeup.start);
+        assertEquals(nowElapsed + 2 * HOUR_MS + TimeUnit.MINUTES.toMillis(30), wakeup.end);
+        assertFalse(wakeup.deadline);
+        assertEquals(JobStatus.NO_LATEST_RUNTIME, strategy.getNextDeadline());
+    }
+
+    @Test
+    public void testScheduleSetsAndCancelsAlarm() {
+        ShadowAlarmManager shadowAlarmManager =
+                shadowOf((AlarmManager) application.getSystemService(Context.ALARM_SERVICE));
+
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+        strategy.addJob(createJobStatus(HOUR_MS, 2 * HOUR_MS));
+        strategy.schedule(application);
+
+        ShadowAlarmManager.ScheduledAlarm alarm = shadowAlarmManager.getNextScheduledAlarm();
+        assertNotNull(alarm);
+        assertEquals(nowElapsed + HOUR_MS, alarm.triggerAtTime);
+
+        new WakeupStrategy(nowElapsed).schedule(application);
+
+        assertTrue(shadowAlarmManager.getScheduledAlarms().isEmpty());
+    }
+
+    @Test
+    public void testScheduleReportsWakeupsPlanned() {
+        final int[] planned = new int[2];
+        JobScheduler.get(application).setMetrics(new JobSchedulerMetrics() {
+            @Override
+            public void onWakeupsPlanned(int windowCount, int wakeupCount) {
+                planned[0] = windowCount;
+                planned[1] = wakeupCount;
+            }
+        });
+
+        WakeupStrategy strategy = new WakeupStrategy(nowElapsed);
+        strategy.addJob(createJobStatus(HOUR_MS, 3 * HOUR_MS));
+        strategy.addJob(createJobStatus(2 * HOUR_MS, 4 * HOUR_MS));
+        strategy.addJob(createJobStatus(5 * HOUR_MS, 6 * HOUR_MS));
+        strategy.schedule(application);
+
+        assertEquals(3, planned[0]);
+        assertEquals(2, planned[1]);
+    }
+
+    private JobStatus createJobStatus(long minLatency, long maxExecutionDelay) {
+        JobInfo.Builder builder = JobCreator.create(application).setMinimumLatency(minLatency);
+        if (maxExecutionDelay > 0) {
+            builder.setOverrideDeadline(maxExecutionDelay);
+        }
+        return JobStatus.createFromJobInfo(builder.build(), AlarmScheduler.TAG);
+    }
+}
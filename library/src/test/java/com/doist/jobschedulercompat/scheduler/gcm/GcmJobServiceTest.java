@@ -4,8 +4,11 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.gcm.PendingCallback;
 
 import com.doist.jobschedulercompat.JobInfo;
+import com.doist.jobschedulercompat.JobSchedulerSettings;
 import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
+import com.doist.jobschedulercompat.job.JobTimeouts;
 import com.doist.jobschedulercompat.util.DeviceTestUtils;
 import com.doist.jobschedulercompat.util.JobCreator;
 import com.doist.jobschedulercompat.util.ShadowGoogleApiAvailability;
@@ -37,7 +40,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import androidx.test.core.app.ApplicationProvider;
 
 import static org.junit.Assert.assertEquals;
-import static org.robolectric.Shadows.shadowOf;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = Build.VERSION_CODES.KITKAT,
@@ -62,6 +66,9 @@ public class GcmJobServiceTest {
     @After
     public void teardown() {
         JobCreator.interruptJobs();
+        JobServiceConnections.reset();
+        JobTimeouts.reset();
+        JobSchedulerSettings.setMaxExecutionTime(JobSchedulerSettings.DEFAULT_MAX_EXECUTION_TIME);
         synchronized (JobStore.LOCK) {
             jobStore.clear();
         }
@@ -102,7 +109,7 @@ public class GcmJobServiceTest {
         jobStore.add(JobStatus.createFromJobInfo(job, GcmScheduler.TAG));
         executeService(job.getId());
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -114,11 +121,51 @@ public class GcmJobServiceTest {
         jobStore.add(JobStatus.createFromJobInfo(job, GcmScheduler.TAG));
         executeService(job.getId());
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
 
         JobCreator.waitForJob(job.getId());
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
+    }
+
+    @Test
+    public void testJobTimesOut() {
+        JobSchedulerSettings.setMaxExecutionTime(2000);
+        DeviceTestUtils.setNetworkInfo(application, true, false, true);
+        JobInfo job = JobCreator.create(application, TimeUnit.HOURS.toMillis(1))
+                                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                                .build();
+        jobStore.add(JobStatus.createFromJobInfo(job, GcmScheduler.TAG));
+        executeService(job.getId());
+
+        assertRunningJobCount(1);
+
+        DeviceTestUtils.advanceTime(2000);
+
+        assertRunningJobCount(0);
+        assertEquals(1, JobTimeouts.getCount(job.getId()));
+    }
+
+    @Test
+    public void testNetworkMismatchKeepsTiming() {
+        DeviceTestUtils.setNetworkInfo(application, true, true, false);
+        JobInfo job = JobCreator.create(application)
+                                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_NOT_ROAMING)
+                                .setOverrideDeadline(TimeUnit.HOURS.toMillis(1))
+                                .build();
+        jobStore.add(JobStatus.createFromJobInfo(job, GcmScheduler.TAG));
+        JobStatus jobStatus = jobStore.getJob(job.getId());
+        long earliestRunTime = jobStatus.getEarliestRunTimeElapsed();
+        long latestRunTime = jobStatus.getLatestRunTimeElapsed();
+        executeService(job.getId());
+
+        assertRunningJobCount(0);
+        jobStatus = jobStore.getJob(job.getId());
+        assertNotNull(jobStatus);
+        assertEquals(0, jobStatus.getNumFailures());
+        assertEquals(earliestRunTime, jobStatus.getEarliestRunTimeElapsed());
+        assertEquals(latestRunTime, jobStatus.getLatestRunTimeElapsed());
+        assertTrue(jobStatus.hasDeadlineConstraint());
     }
 
     @Test
@@ -136,8 +183,8 @@ public class GcmJobServiceTest {
         assertEquals(0, jobStore.size());
     }
 
-    private void assertBoundServiceCount(int count) {
-        assertEquals(count, shadowOf(application).getBoundServiceConnections().size());
+    private void assertRunningJobCount(int count) {
+        assertEquals(count, JobCreator.getRunningJobCount());
     }
 
     private void initializeService() {
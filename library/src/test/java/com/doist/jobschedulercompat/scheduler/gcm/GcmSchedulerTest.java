@@ -184,8 +184,8 @@ public class GcmSchedulerTest {
         assertEquals(job.isRequireCharging(), intent.getBooleanExtra(PARAM_REQUIRES_CHARGING, false));
         int requiredNetwork;
         switch (job.getNetworkType()) {
-            case JobInfo.NETWORK_TYPE_ANY:
-                requiredNetwork = GcmScheduler.NETWORK_STATE_CONNECTED;
+            case JobInfo.NETWORK_TYPE_NONE:
+                requiredNetwork = GcmScheduler.NETWORK_STATE_ANY;
                 break;
 
             case JobInfo.NETWORK_TYPE_UNMETERED:
@@ -193,7 +193,7 @@ public class GcmSchedulerTest {
                 break;
 
             default:
-                requiredNetwork = GcmScheduler.NETWORK_STATE_ANY;
+                requiredNetwork = GcmScheduler.NETWORK_STATE_CONNECTED;
                 break;
         }
         assertEquals(requiredNetwork, intent.getIntExtra(GcmScheduler.PARAM_REQUIRED_NETWORK, -1));
@@ -3,6 +3,7 @@ package com.doist.jobschedulercompat.scheduler.jobscheduler;
 import com.doist.jobschedulercompat.JobInfo;
 import com.doist.jobschedulercompat.job.JobStatus;
 import com.doist.jobschedulercompat.job.JobStore;
+import com.doist.jobschedulercompat.scheduler.JobServiceConnections;
 import com.doist.jobschedulercompat.util.DeviceTestUtils;
 import com.doist.jobschedulercompat.util.JobCreator;
 import com.doist.jobschedulercompat.util.ShadowJobParameters;
@@ -46,6 +47,7 @@ public class JobSchedulerJobServiceTest {
     @After
     public void teardown() {
         JobCreator.interruptJobs();
+        JobServiceConnections.reset();
         synchronized (JobStore.LOCK) {
             jobStore.clear();
         }
@@ -58,7 +60,7 @@ public class JobSchedulerJobServiceTest {
         DeviceTestUtils.advanceTime(LATENCY_MS);
         executeService(job.getId());
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
     }
 
     @Test
@@ -68,11 +70,32 @@ public class JobSchedulerJobServiceTest {
         DeviceTestUtils.advanceTime(LATENCY_MS);
         executeService(job.getId());
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
 
         JobCreator.waitForJob(job.getId());
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
+    }
+
+    @Test
+    public void testJobsShareBinding() {
+        JobInfo job = JobCreator.create(application, 2000).setMinimumLatency(LATENCY_MS).build();
+        jobStore.add(JobStatus.createFromJobInfo(job, getSchedulerTag()));
+        JobInfo otherJob = JobCreator.create(application, 2000).setMinimumLatency(LATENCY_MS).build();
+        jobStore.add(JobStatus.createFromJobInfo(otherJob, getSchedulerTag()));
+        DeviceTestUtils.advanceTime(LATENCY_MS);
+        executeService(job.getId());
+        executeService(otherJob.getId());
+
+        assertRunningJobCount(2);
+        assertEquals(1, shadowOf(application).getBoundServiceConnections().size());
+
+        service.onStopJob(ShadowJobParameters.newInstance(jobStore.getJob(job.getId())));
+        service.onStopJob(ShadowJobParameters.newInstance(jobStore.getJob(otherJob.getId())));
+        DeviceTestUtils.advanceTime(JobServiceConnections.LINGER);
+
+        assertRunningJobCount(0);
+        assertEquals(0, shadowOf(application).getBoundServiceConnections().size());
     }
 
     @Test
@@ -83,19 +106,19 @@ public class JobSchedulerJobServiceTest {
         jobStore.add(jobStatus);
         executeService(job.getId());
 
-        assertBoundServiceCount(1);
+        assertRunningJobCount(1);
 
         service.onStopJob(ShadowJobParameters.newInstance(jobStore.getJob(job.getId())));
 
-        assertBoundServiceCount(0);
+        assertRunningJobCount(0);
     }
 
     private void executeService(int jobId) {
         service.onStartJob(ShadowJobParameters.newInstance(jobStore.getJob(jobId)));
     }
 
-    private void assertBoundServiceCount(int count) {
-        assertEquals(count, shadowOf(application).getBoundServiceConnections().size());
+    private void assertRunningJobCount(int count) {
+        assertEquals(count, JobCreator.getRunningJobCount());
     }
 
     private String getSchedulerTag() {
@@ -0,0 +1,89 @@
+package com.doist.jobschedulercompat.util;
+
+import com.doist.jobschedulercompat.PersistableBundle;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal benchmark harness for the {@code *Benchmark} classes, which run as regular Robolectric tests but are skipped
+ * unless enabled with {@code ./gradlew :library:testDebugUnitTest -Pbenchmark --tests '*Benchmark'}.
+ *
+ * Each operation is warmed up, then run repeatedly for a fixed time, and its throughput is printed to stdout. Results
+ * are only meaningful relative to each other, on the same machine, as they include Robolectric's overhead.
+ */
+public class Benchmark {
+    private static final String PROPERTY_ENABLED = "jobschedulercompat.benchmark";
+
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Consumes results so that operations can't be optimized away. */
+    private static volatile int sink;
+
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks only run with -Pbenchmark", Boolean.getBoolean(PROPERTY_ENABLED));
+    }
+
+    public static void measure(String name, Operation operation) throws Exception {
+        run(operation, WARMUP_NANOS);
+        long[] result = run(operation, MEASURE_NANOS);
+        long count = result[0];
+        long elapsed = result[1];
+        System.out.println(String.format(
+                Locale.US, "%-60s %14.1f ops/s %12d ns/op", name, count * 1e9 / elapsed, elapsed / count));
+    }
+
+    /**
+     * Returns extras with {@code size} entries of the supported types, including a nested bundle.
+     */
+    public static PersistableBundle createExtras(int size) {
+        PersistableBundle extras = new PersistableBundle();
+        for (int i = 0; i < size; i++) {
+            String key = "key" + i;
+            switch (i % 6) {
+                case 0:
+                    extras.putString(key, "value <" + i + "> & \"more\"");
+                    break;
+                case 1:
+                    extras.putInt(key, i);
+                    break;
+                case 2:
+                    extras.putLong(key, i * 1000L);
+                    break;
+                case 3:
+                    extras.putBoolean(key, i % 2 == 0);
+                    break;
+                case 4:
+                    extras.putLongArray(key, new long[]{i, i + 1, i + 2});
+                    break;
+                default:
+                    PersistableBundle nested = new PersistableBundle();
+                    nested.putString("nested", "value" + i);
+                    nested.putDouble("double", i / 3d);
+                    extras.putPersistableBundleCompat(key, nested);
+                    break;
+            }
+        }
+        return extras;
+    }
+
+    private static long[] run(Operation operation, long durationNanos) throws Exception {
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            Object result = operation.run();
+            sink += System.identityHashCode(result);
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < durationNanos);
+        return new long[]{count, elapsed};
+    }
+
+    public interface Operation {
+        Object run() throws Exception;
+    }
+}
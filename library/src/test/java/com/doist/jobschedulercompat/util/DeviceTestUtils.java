@@ -1,6 +1,12 @@
 package com.doist.jobschedulercompat.util;
 
+import com.doist.jobschedulercompat.scheduler.alarm.BatteryTracker;
+import com.doist.jobschedulercompat.scheduler.alarm.ConnectivityTracker;
+import com.doist.jobschedulercompat.scheduler.alarm.IdleController;
+import com.doist.jobschedulercompat.scheduler.alarm.StorageTracker;
+
 import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowStatFs;
 
 import android.content.ComponentName;
 import android.content.Context;
@@ -28,22 +34,26 @@ public class DeviceTestUtils {
             chargingIntent.putExtra(BatteryManager.EXTRA_PLUGGED, BatteryManager.BATTERY_PLUGGED_AC);
         }
         context.sendStickyBroadcast(chargingIntent);
+        // Drop any battery state tracked in a previous run or test, so that the next read reflects this one.
+        BatteryTracker.reset();
     }
 
-    @SuppressWarnings("deprecation")
     public static void setStorageNotLow(Context context, boolean storageNotLow) {
-        Intent storageLowIntent = new Intent(Intent.ACTION_DEVICE_STORAGE_LOW);
-        if (storageNotLow) {
-            context.removeStickyBroadcast(storageLowIntent);
-        } else {
-            context.sendStickyBroadcast(storageLowIntent);
-        }
+        // 1GB in total, with either 900MB or 10MB available.
+        int blockCount = 1024 * 1024 * 1024 / ShadowStatFs.BLOCK_SIZE;
+        int availableBlocks = (storageNotLow ? 900 : 10) * 1024 * 1024 / ShadowStatFs.BLOCK_SIZE;
+        ShadowStatFs.registerStats(context.getFilesDir(), blockCount, availableBlocks, availableBlocks);
+        // Drop any storage state sampled in a previous run or test, so that the next read reflects this one.
+        StorageTracker.reset();
     }
 
     public static void setDeviceIdle(Context context, boolean idle) {
         PowerManager manager = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
         shadowOf(manager).setIsInteractive(!idle);
         shadowOf(manager).setIsScreenOn(!idle);
+        // Idle devices have been inactive for a while, active ones are active now.
+        IdleController.reset();
+        IdleController.get(context).setLastActiveTime(idle ? 0L : System.currentTimeMillis());
     }
 
     @SuppressWarnings("deprecation")
@@ -55,6 +65,8 @@ public class DeviceTestUtils {
         NetworkInfo networkInfo =
                 ShadowNetworkInfo.newInstance(detailedState, type, 0, isConnected, isConnected, isRoaming);
         shadowOf(manager).setActiveNetworkInfo(networkInfo);
+        // Drop any network state tracked in a previous run or test, so that the next read reflects this one.
+        ConnectivityTracker.reset();
     }
 
     @SuppressWarnings("deprecation")
@@ -97,5 +109,13 @@ public class DeviceTestUtils {
     public static void advanceTime(long timeMs) {
         Robolectric.getBackgroundThreadScheduler().advanceBy(timeMs, TimeUnit.MILLISECONDS);
         Robolectric.getForegroundThreadScheduler().advanceBy(timeMs, TimeUnit.MILLISECONDS);
+        shadowOf(BackgroundThread.get().getLooper()).getScheduler().advanceBy(timeMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs all pending tasks on the library's {@link BackgroundThread}, which Robolectric doesn't loop on its own.
+     */
+    public static void runBackgroundThread() {
+        shadowOf(BackgroundThread.get().getLooper()).idle();
     }
 }
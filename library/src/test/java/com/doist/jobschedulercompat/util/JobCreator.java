@@ -45,6 +45,10 @@ public class JobCreator {
         NoopAsyncJobService.waitForJob(id);
     }
 
+    public static int getRunningJobCount() {
+        return NoopAsyncJobService.getRunningJobCount();
+    }
+
     public static void interruptJobs() {
         NoopAsyncJobService.interruptJobs();
     }
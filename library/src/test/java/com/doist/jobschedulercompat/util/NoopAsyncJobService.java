@@ -63,6 +63,12 @@ public class NoopAsyncJobService extends JobService {
         }
     }
 
+    static int getRunningJobCount() {
+        synchronized (futures) {
+            return futures.size();
+        }
+    }
+
     static void interruptJobs() {
         SparseArray<ScheduledFuture> currentFutures;
         synchronized (futures) {
@@ -0,0 +1,90 @@
+package com.doist.jobschedulercompat.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import android.util.Xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class XmlUtilsBenchmark {
+    private static final int[] MAP_SIZES = new int[]{10, 100, 1000};
+
+    @Before
+    public void setup() {
+        Benchmark.assumeEnabled();
+    }
+
+    @Test
+    public void benchmarkWriteMapXml() throws Exception {
+        for (int size : MAP_SIZES) {
+            final Map<String, ?> map = Benchmark.createExtras(size).toMap(10);
+            Benchmark.measure("writeMapXml size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() throws Exception {
+                    return writeMapXml(map);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void benchmarkReadMapXml() throws Exception {
+        for (int size : MAP_SIZES) {
+            final byte[] xml = writeMapXml(Benchmark.createExtras(size).toMap(10));
+            Benchmark.measure("readMapXml size=" + size, new Benchmark.Operation() {
+                @Override
+                public Object run() throws Exception {
+                    XmlPullParser parser = Xml.newPullParser();
+                    parser.setInput(new ByteArrayInputStream(xml), "utf-8");
+                    parser.nextTag();
+                    parser.next();
+                    return XmlUtils.readMapXml(parser, "extras");
+                }
+            });
+        }
+    }
+
+    @Test
+    public void benchmarkEscaping() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append(i % 4 == 0 ? "<a href=\"x\">&amp;</a>" : "plain text ");
+        }
+        final String text = builder.toString();
+        Benchmark.measure("FastXmlSerializer escaping", new Benchmark.Operation() {
+            @Override
+            public Object run() throws IOException {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                XmlSerializer out = new XmlUtils.FastXmlSerializer();
+                out.setOutput(baos, "utf-8");
+                out.startTag(null, "string");
+                out.attribute(null, "value", text);
+                out.text(text);
+                out.endTag(null, "string");
+                out.endDocument();
+                return baos;
+            }
+        });
+    }
+
+    private static byte[] writeMapXml(Map<String, ?> map) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        XmlSerializer out = new XmlUtils.FastXmlSerializer();
+        out.setOutput(baos, "utf-8");
+        out.startDocument(null, true);
+        out.startTag(null, "extras");
+        XmlUtils.writeMapXml(map, out);
+        out.endTag(null, "extras");
+        out.endDocument();
+        return baos.toByteArray();
+    }
+}